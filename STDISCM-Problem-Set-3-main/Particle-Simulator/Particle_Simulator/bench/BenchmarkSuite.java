@@ -0,0 +1,309 @@
+import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+// Regression suite for the server and client hot paths, run by Harness. Every workload is built
+// from a fixed seed, so runs on different commits measure the same work.
+//
+// Run with: java -Djava.awt.headless=true -cp <classes> BenchmarkSuite [options] [regex]
+//   e.g.    ... BenchmarkSuite --csv before.csv
+//           ... BenchmarkSuite --baseline before.csv 'engine|state'
+// See Harness for the options. One op is one invocation, e.g. stepping the whole world once.
+public class BenchmarkSuite {
+    private static final double DELTA_TIME = 0.05;
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    static final List<Harness.Case> CASES = List.of(
+            //Physics
+            new Harness.Case("particle.move", "particles", new int[]{100_000}, BenchmarkSuite::particleMove),
+            new Harness.Case("store.step", "particles", new int[]{10_000, 100_000, 1_000_000}, BenchmarkSuite::storeStep),
+            new Harness.Case("store.stepVector", "particles", new int[]{10_000, 100_000, 1_000_000}, BenchmarkSuite::storeStepVector),
+            new Harness.Case("store.stepOffHeap", "particles", new int[]{100_000, 1_000_000}, BenchmarkSuite::storeStepOffHeap),
+            new Harness.Case("engine.tick", "particles", new int[]{10_000, 100_000, 1_000_000}, BenchmarkSuite::engineTick),
+            new Harness.Case("collision.resolve", "particles", new int[]{10_000, 100_000}, BenchmarkSuite::collisionResolve),
+
+            //Spatial query: the periphery filter of ExplorerSession.buildState
+            new Harness.Case("periphery.query", "particles", new int[]{100_000, 1_000_000}, BenchmarkSuite::peripheryQuery),
+            new Harness.Case("periphery.buildState", "particles", new int[]{100_000, 1_000_000}, BenchmarkSuite::buildState),
+
+            //State encode + decode for one explorer view
+            new Harness.Case("state.text", "inView", new int[]{100, 1000}, BenchmarkSuite::stateText),
+            new Harness.Case("state.binary", "inView", new int[]{100, 1000}, BenchmarkSuite::stateBinary),
+            new Harness.Case("state.delta", "inView", new int[]{100, 1000}, BenchmarkSuite::stateDelta),
+
+            //One offscreen developer-view frame
+            new Harness.Case("render.fillOval", "particles", new int[]{10_000}, BenchmarkSuite::renderFillOval),
+            new Harness.Case("render.raster", "particles", new int[]{10_000, 100_000}, BenchmarkSuite::renderRaster),
+            new Harness.Case("render.heatmap", "particles", new int[]{1_000_000}, BenchmarkSuite::renderHeatmap));
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Harness.run(CASES, BenchmarkSuite.class, args);
+    }
+
+    private static Harness.Workload particleMove(int n) {
+        Random random = new Random(42);
+        Particle[] particles = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            particles[i] = new Particle(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT,
+                    random.nextDouble() * 360, 50 + random.nextDouble() * 450);
+        }
+        return () -> {
+            for (Particle p : particles)
+                p.move(DELTA_TIME);
+            return (long) particles[0].x;
+        };
+    }
+
+    private static Harness.Workload storeStep(int n) {
+        ParticleStore store = randomStore(n);
+        return () -> {
+            store.step(DELTA_TIME);
+            return (long) store.x[0];
+        };
+    }
+
+    // The scalar kernel stands in when the JVM runs without --add-modules jdk.incubator.vector
+    private static Harness.Workload storeStepVector(int n) {
+        ParticleStore store = randomStore(n, StepKernel.create(SimulationConfig.Kernel.VECTOR));
+        return () -> {
+            store.step(DELTA_TIME);
+            return (long) store.x[0];
+        };
+    }
+
+    // Stepped and copied into a snapshot, as the engine does with sim.offHeap
+    private static Harness.Workload storeStepOffHeap(int n) {
+        Random random = new Random(42);
+        OffHeapParticleStore store = new OffHeapParticleStore(n, StepKernel.create(SimulationConfig.Kernel.AUTO));
+        for (int i = 0; i < n; i++) {
+            store.add(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT,
+                    random.nextDouble() * 360, 50 + random.nextDouble() * 450);
+        }
+        WorldSnapshot snapshot = new WorldSnapshot(n);
+        return () -> {
+            store.stepInto(snapshot, 0, n, DELTA_TIME);
+            return (long) snapshot.x[0];
+        };
+    }
+
+    private static Harness.Workload engineTick(int n) {
+        SimulationEngine engine = engine(n);
+        return () -> {
+            engine.tick();
+            return engine.tickCount();
+        };
+    }
+
+    // One collision phase after a step, over the engine's pool; radius from sim.collisionRadius.
+    // The store is stepped between invocations so the contacts keep changing.
+    private static Harness.Workload collisionResolve(int n) {
+        SimulationConfig config = SimulationConfig.fromSystemProperties();
+        ParticleStore store = randomStore(n);
+        CollisionPhase collisions = new CollisionPhase(config.collisionRadius);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(config.threads);
+        return () -> {
+            store.step(DELTA_TIME);
+            collisions.resolve(store, n, pool);
+            return collisions.contacts();
+        };
+    }
+
+    private static Harness.Workload peripheryQuery(int n) {
+        WorldSnapshot snapshot = snapshot(n);
+        double[] ex = new double[64], ey = new double[64];
+        Random random = new Random(11);
+        for (int i = 0; i < ex.length; i++) {
+            ex[i] = random.nextDouble() * WIDTH;
+            ey[i] = random.nextDouble() * HEIGHT;
+        }
+        int w = ExplorerSession.PERIPHERY_WIDTH, h = ExplorerSession.PERIPHERY_HEIGHT;
+        long[] seen = new long[1];
+        int[] next = new int[1];
+        return () -> {
+            int e = next[0]++ & (ex.length - 1);
+            double x = ex[e], y = ey[e];
+            snapshot.query(x - w - 1, y - h - 1, x + w + 1, y + h + 1, i -> {
+                if (Math.abs((int) (snapshot.x(i) - x)) <= w && Math.abs((int) (snapshot.y(i) - y)) <= h)
+                    seen[0]++;
+            });
+            return seen[0];
+        };
+    }
+
+    private static Harness.Workload buildState(int n) {
+        SimulationEngine engine = engine(n);
+        engine.tick();
+        WorldSnapshot snapshot = engine.acquireSnapshot();
+        ServerConfig config = new ServerConfig(ServerConfig.StreamMode.FULL, ServerConfig.ServerMode.NIO, 60, 5000);
+        ExplorerSession session = new ExplorerSession(0, engine, config, new SendMetrics());
+        try {
+            session.handle(ExplorerProtocol.HELLO, ByteBuffer.allocate(8).putFloat(640).putFloat(360).flip());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<ExplorerSession> sessions = List.of(session);
+        return () -> session.buildState(snapshot, sessions).remaining();
+    }
+
+    // The text STATE format Canvas.ExplorerHandler used to send, built and split per message
+    private static Harness.Workload stateText(int n) {
+        double[][] view = view(n);
+        return () -> {
+            StringBuilder res = new StringBuilder("STATE ");
+            for (int i = 0; i < n; i++) {
+                res.append("P ").append(view[0][i]).append(" ").append(view[1][i]).append(" ");
+            }
+            String[] temp = res.toString().split(" ");
+            double sum = 0;
+            for (int i = 1; i < temp.length; i += 3) {
+                sum += Double.parseDouble(temp[i + 1]) + Double.parseDouble(temp[i + 2]);
+            }
+            return (long) sum;
+        };
+    }
+
+    private static Harness.Workload stateBinary(int n) {
+        double[][] view = view(n);
+        ExplorerProtocol.StateEncoder encoder = new ExplorerProtocol.StateEncoder(new ExplorerProtocol.FrameWriter());
+        ExplorerProtocol.StateFrame frame = new ExplorerProtocol.StateFrame();
+        return () -> {
+            encoder.begin(0, 0, 640, 360);
+            for (int i = 0; i < n; i++) {
+                encoder.particle(view[0][i], view[1][i]);
+            }
+            encoder.beginExplorers();
+            ByteBuffer encoded = encoder.finish();
+            encoded.position(ExplorerProtocol.HEADER_SIZE);
+            ExplorerProtocol.readState(encoded, frame);
+            return frame.particleCount;
+        };
+    }
+
+    // Particles drift a little every frame and each frame is acknowledged, the steady state of a DELTA stream
+    private static Harness.Workload stateDelta(int n) {
+        double[][] view = view(n);
+        double[] vx = new double[n], vy = new double[n];
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            vx[i] = (random.nextDouble() * 2 - 1) * 0.5;
+            vy[i] = (random.nextDouble() * 2 - 1) * 0.5;
+        }
+        DeltaCodec.Encoder encoder = new DeltaCodec.Encoder();
+        DeltaCodec.Decoder decoder = new DeltaCodec.Decoder();
+        ExplorerProtocol.FrameWriter writer = new ExplorerProtocol.FrameWriter();
+        ExplorerProtocol.StateFrame frame = new ExplorerProtocol.StateFrame();
+        return () -> {
+            DeltaCodec.View current = encoder.begin();
+            for (int i = 0; i < n; i++) {
+                view[0][i] += vx[i];
+                view[1][i] += vy[i];
+                if (Math.abs(view[0][i] - 640) > 33) vx[i] = -vx[i];
+                if (Math.abs(view[1][i] - 360) > 19) vy[i] = -vy[i];
+                current.addParticle(i, view[0][i], view[1][i]);
+            }
+            ByteBuffer encoded = encoder.encode(writer, 0, 0);
+            encoded.position(ExplorerProtocol.HEADER_SIZE);
+            int number = decoder.decode(encoded, frame);
+            encoder.ack(number);
+            return number;
+        };
+    }
+
+    private static Harness.Workload renderFillOval(int n) {
+        int[][] points = points(n);
+        return () -> {
+            Image offscreen = new java.awt.image.BufferedImage(WIDTH, HEIGHT, java.awt.image.BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = (Graphics2D) offscreen.getGraphics();
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.setColor(Color.GREEN);
+            for (int i = 0; i < n; i++) {
+                g.fillOval(points[0][i] - 5, points[1][i] - 5, 10, 10);
+            }
+            g.dispose();
+            return n;
+        };
+    }
+
+    private static Harness.Workload renderRaster(int n) {
+        int[][] points = points(n);
+        RasterRenderer renderer = new RasterRenderer(WIDTH, HEIGHT, 10);
+        int green = Color.GREEN.getRGB();
+        return () -> {
+            renderer.clear(Color.BLACK);
+            for (int i = 0; i < n; i++) {
+                renderer.disc(points[0][i] - 5, points[1][i] - 5, green);
+            }
+            return renderer.pixels()[WIDTH * HEIGHT / 2];
+        };
+    }
+
+    private static Harness.Workload renderHeatmap(int n) {
+        WorldSnapshot snapshot = snapshot(n);
+        RasterRenderer renderer = new RasterRenderer(WIDTH, HEIGHT, 10);
+        DensityHeatmap heatmap = new DensityHeatmap(WIDTH, HEIGHT, Runtime.getRuntime().availableProcessors());
+        return () -> {
+            heatmap.render(snapshot, 0.01, renderer.pixels());
+            return renderer.pixels()[WIDTH * HEIGHT / 2];
+        };
+    }
+
+    private static ParticleStore randomStore(int n) {
+        return randomStore(n, StepKernel.SCALAR);
+    }
+
+    private static ParticleStore randomStore(int n, StepKernel kernel) {
+        Random random = new Random(42);
+        ParticleStore store = new ParticleStore(n, kernel);
+        for (int i = 0; i < n; i++) {
+            store.add(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT,
+                    random.nextDouble() * 360, 50 + random.nextDouble() * 450);
+        }
+        return store;
+    }
+
+    // An engine with n particles spread over the canvas; its first tick applies the spawn
+    private static SimulationEngine engine(int n) {
+        SimulationEngine engine = new SimulationEngine(SimulationConfig.fromSystemProperties());
+        engine.particles().ensureCapacity(n);
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            engine.particles().add(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT,
+                    random.nextDouble() * 360, 50 + random.nextDouble() * 450);
+        }
+        return engine;
+    }
+
+    // A published snapshot of n particles with its grid built, held for the whole run
+    private static WorldSnapshot snapshot(int n) {
+        SimulationEngine engine = engine(n);
+        engine.tick();
+        return engine.acquireSnapshot();
+    }
+
+    // Positions within one explorer's periphery around (640, 360)
+    private static double[][] view(int n) {
+        Random random = new Random(7);
+        double[][] view = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            view[0][i] = 640 + (random.nextDouble() * 2 - 1) * 33;
+            view[1][i] = 360 + (random.nextDouble() * 2 - 1) * 19;
+        }
+        return view;
+    }
+
+    private static int[][] points(int n) {
+        Random random = new Random(42);
+        int[][] points = new int[2][n];
+        for (int i = 0; i < n; i++) {
+            points[0][i] = random.nextInt(WIDTH);
+            points[1][i] = random.nextInt(HEIGHT);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,95 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Connects growing numbers of explorers to an in-process server and reports the platform
+// thread count and heap in use at each step, to compare explorer.server modes.
+// The fake explorers are drained by one selector thread so the client side adds a single thread.
+//
+// Run with: java -cp <classes> ConnectionScalingBenchmark [nio|virtual] [steps, e.g. 100,500,1000] [particles]
+public class ConnectionScalingBenchmark {
+    private static final int PORT = 12399;
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig.ServerMode mode = ServerConfig.ServerMode.valueOf((args.length > 0 ? args[0] : "nio").toUpperCase());
+        String[] steps = (args.length > 1 ? args[1] : "100,500,1000,2000").split(",");
+        int particles = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        SimulationEngine engine = new SimulationEngine(SimulationConfig.fromSystemProperties());
+        engine.addParticles(particles, 0, 0, 1280, 720, 30, 100);
+        engine.start();
+
+        ExplorerServer server = ExplorerServer.create(engine, new ServerConfig(ServerConfig.StreamMode.DELTA, mode, 60, 5000));
+        server.start(PORT);
+
+        Selector clients = Selector.open();
+        AtomicLong received = new AtomicLong();
+        Thread drain = new Thread(() -> drain(clients, received), "client-drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Thread.sleep(500);
+        System.gc();
+        System.out.printf("mode %s, baseline: %d threads, %.1f MB heap%n", mode,
+                threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed() / 1e6);
+
+        ExplorerProtocol.FrameWriter writer = new ExplorerProtocol.FrameWriter(64);
+        int connected = 0;
+        for (String step : steps) {
+            int target = Integer.parseInt(step.trim());
+            for (; connected < target; connected++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", PORT));
+                channel.write(ExplorerProtocol.writeHello(writer, connected * 7 % 1280, connected * 13 % 720));
+                channel.configureBlocking(false);
+                clients.wakeup();
+                channel.register(clients, SelectionKey.OP_READ);
+            }
+
+            //Let every session reach steady state before sampling
+            Thread.sleep(2000);
+            long before = received.get();
+            Thread.sleep(1000);
+            long bytesPerSecond = received.get() - before;
+            System.gc();
+            BroadcastStage stage = server.broadcastStage();
+            System.out.printf("%6d explorers  %5d threads  %8.1f MB heap  %8.1f KB/s received  %5d queued  %8d dropped  %4d evicted%n", connected,
+                    threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed() / 1e6, bytesPerSecond / 1e3,
+                    stage.queuedFrames(), stage.droppedFrames(), stage.evictedClients());
+        }
+
+        server.stop();
+        engine.stop();
+        System.exit(0);
+    }
+
+    private static void drain(Selector clients, AtomicLong received) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (true) {
+                clients.select(100);
+                Iterator<SelectionKey> keys = clients.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    buffer.clear();
+                    int n = ((SocketChannel) key.channel()).read(buffer);
+                    if (n < 0)
+                        key.cancel();
+                    else
+                        received.addAndGet(n);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+// Measures SimulationEngine tick time for one particle count across worker counts,
+// to check that parallel stepping scales with cores.
+//
+// Run with: java -cp <classes> EngineScalingBenchmark [particles] [ticks] [maxThreads]
+public class EngineScalingBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        double baseline = 0;
+        //Powers of two up to the core count, then the core count itself
+        for (int threads = 1; threads <= maxThreads; threads = threads * 2 > maxThreads && threads < maxThreads ? maxThreads : threads * 2) {
+            SimulationEngine engine = new SimulationEngine(new SimulationConfig(threads, 16_384));
+            engine.addParticles(n, 0, 0, 1280, 720, 30, 300);
+
+            //First ticks apply the spawn and warm up the JIT
+            for (int i = 0; i < ticks; i++) {
+                engine.tick();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                engine.tick();
+            }
+            double msPerTick = (System.nanoTime() - start) / 1e6 / ticks;
+            if (threads == 1)
+                baseline = msPerTick;
+
+            System.out.printf("threads %3d  %8.3f ms/tick  speedup %5.2fx%n", threads, msPerTick, baseline / msPerTick);
+            engine.stop();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+// Opens many explorer sessions against a running server and reports what each one gets, to find
+// how many explorers a server sustains. Sessions speak the same protocol as ExplorerClient: they
+// predict their own movement with InputPredictor, decode every STATE, DELTA and RECKON frame, and
+// acknowledge deltas. Every state frame carries the wall-clock time of its tick and a per-explorer
+// sequence, which give the latency from server tick to receipt and the frames that were lost.
+// Latency needs both ends on one clock, so run it on the server's machine.
+//
+// Each shard thread owns a slice of the sessions and does all their reads, writes and input ticks,
+// so sessions need no locking.
+//
+// Run with: java -cp <classes> ExplorerLoadGenerator [--host localhost] [--port 12345] [--explorers 100]
+//           [--seconds 30] [--warmup 5] [--input random|sweep|idle] [--threads 1] [--seed 1] [--per-session]
+public class ExplorerLoadGenerator {
+    private static final long LATENCY_BUCKET_MICROS = 10;
+    private static final int LATENCY_BUCKETS = 200_000; // 2 s, later receipts go in the last bucket
+
+    enum InputMode {
+        RANDOM, // hold a random direction, or nothing, for half a second to two seconds at a time
+        SWEEP,  // cross the canvas row by row, 40 px apart
+        IDLE    // never move
+    }
+
+    private static volatile long measureFrom = Long.MAX_VALUE; // nanoTime the measured window opens
+    private static final LongAdder totalFrames = new LongAdder();
+    private static final LongAdder totalBytes = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 12345, explorers = 100, threads = 1;
+        double seconds = 30, warmup = 5;
+        long seed = 1;
+        InputMode input = InputMode.RANDOM;
+        boolean perSession = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--explorers" -> explorers = Integer.parseInt(args[++i]);
+                case "--seconds" -> seconds = Double.parseDouble(args[++i]);
+                case "--warmup" -> warmup = Double.parseDouble(args[++i]);
+                case "--input" -> input = InputMode.valueOf(args[++i].toUpperCase());
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--per-session" -> perSession = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        //Connect everyone before any shard starts, so the channels can be registered up front
+        List<Shard> shards = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            shards.add(new Shard(t));
+        }
+        List<Session> sessions = new ArrayList<>();
+        Random placement = new Random(seed);
+        ExplorerProtocol.FrameWriter helloWriter = new ExplorerProtocol.FrameWriter(64);
+        for (int id = 0; id < explorers; id++) {
+            Session session = new Session(id, input, new Random(seed + id),
+                    placement.nextFloat() * 1280, placement.nextFloat() * 720);
+            session.connect(host, port, helloWriter);
+            shards.get(id % threads).add(session);
+            sessions.add(session);
+        }
+        System.out.printf("%d explorers connected to %s:%d, input %s%n", explorers, host, port, input.name().toLowerCase());
+
+        for (Shard shard : shards) {
+            shard.start();
+        }
+
+        //Warm up, then measure, printing the receive rate every second
+        long start = System.nanoTime();
+        long warmupNanos = (long) (warmup * 1e9), end = start + warmupNanos + (long) (seconds * 1e9);
+        measureFrom = start + warmupNanos;
+        long lastFrames = 0, lastBytes = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            long frames = totalFrames.sum(), bytes = totalBytes.sum();
+            long open = sessions.stream().filter(s -> !s.droppedByServer).count();
+            System.out.printf("%6.1f s %s  %5d open  %8d frames/s  %9.1f KB/s%n", (System.nanoTime() - start) / 1e9,
+                    System.nanoTime() < measureFrom ? "warmup " : "measure", open, frames - lastFrames, (bytes - lastBytes) / 1e3);
+            lastFrames = frames;
+            lastBytes = bytes;
+        }
+        long measuredNanos = System.nanoTime() - measureFrom;
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+
+        report(sessions, shards, measuredNanos / 1e9, warmup, perSession);
+        System.exit(0);
+    }
+
+    private static void report(List<Session> sessions, List<Shard> shards, double seconds, double warmup, boolean perSession) {
+        long[] latency = new long[LATENCY_BUCKETS];
+        for (Shard shard : shards) {
+            for (int i = 0; i < LATENCY_BUCKETS; i++)
+                latency[i] += shard.latency[i];
+        }
+
+        long frames = 0, bytes = 0, lost = 0, dropped = 0;
+        double minFps = Double.MAX_VALUE, maxFps = 0, minKBps = Double.MAX_VALUE, maxKBps = 0, worstLoss = 0;
+        for (Session s : sessions) {
+            frames += s.frames;
+            bytes += s.bytes;
+            lost += s.lost;
+            dropped += s.droppedByServer ? 1 : 0;
+            minFps = Math.min(minFps, s.frames / seconds);
+            maxFps = Math.max(maxFps, s.frames / seconds);
+            minKBps = Math.min(minKBps, s.bytes / seconds / 1e3);
+            maxKBps = Math.max(maxKBps, s.bytes / seconds / 1e3);
+            worstLoss = Math.max(worstLoss, s.lossRatio());
+        }
+        int n = sessions.size();
+
+        System.out.println();
+        if (perSession) {
+            System.out.printf("%8s %10s %10s %12s %12s %8s%n", "explorer", "frames/s", "KB/s", "latency avg", "latency max", "loss");
+            for (Session s : sessions) {
+                System.out.printf("%8d %10.1f %10.2f %9.3f ms %9.3f ms %7.2f%%%s%n", s.id, s.frames / seconds, s.bytes / seconds / 1e3,
+                        s.frames == 0 ? 0 : s.latencySumMicros / 1e3 / s.frames, s.latencyMaxMicros / 1e3,
+                        s.lossRatio() * 100, s.droppedByServer ? "  dropped" : "");
+            }
+            System.out.println();
+        }
+        System.out.printf("explorers   %d, %d disconnected by the server%n", n, dropped);
+        System.out.printf("measured    %.1f s after %.1f s warmup%n", seconds, warmup);
+        System.out.printf("frames      %.0f /s total, %.1f /s per explorer (min %.1f, max %.1f)%n",
+                frames / seconds, frames / seconds / n, minFps, maxFps);
+        System.out.printf("bandwidth   %.1f KB/s total, %.2f KB/s per explorer (min %.2f, max %.2f)%n",
+                bytes / seconds / 1e3, bytes / seconds / 1e3 / n, minKBps, maxKBps);
+        System.out.printf("latency     p50 %.3f ms  p90 %.3f ms  p99 %.3f ms  p99.9 %.3f ms  max %.3f ms%n",
+                percentile(latency, 0.5), percentile(latency, 0.9), percentile(latency, 0.99), percentile(latency, 0.999),
+                sessions.stream().mapToLong(s -> s.latencyMaxMicros).max().orElse(0) / 1e3);
+        System.out.printf("frame loss  %.3f%% (%d of %d built), worst explorer %.3f%%%n",
+                frames + lost == 0 ? 0 : lost * 100.0 / (frames + lost), lost, frames + lost, worstLoss * 100);
+    }
+
+    // Upper edge of the bucket holding the q-quantile, in ms
+    private static double percentile(long[] histogram, double q) {
+        long total = 0;
+        for (long count : histogram)
+            total += count;
+        long rank = (long) Math.ceil(total * q), seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0)
+                return (i + 1) * LATENCY_BUCKET_MICROS / 1e3;
+        }
+        return 0;
+    }
+
+    // One selector thread and the sessions it owns
+    private static class Shard implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final List<Session> sessions = new ArrayList<>();
+        private final long[] latency = new long[LATENCY_BUCKETS];
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        private Thread thread;
+        private volatile boolean running;
+
+        Shard(int index) throws IOException {
+            this.index = index;
+            selector = Selector.open();
+        }
+
+        void add(Session session) throws IOException {
+            session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+        }
+
+        void start() {
+            running = true;
+            thread = new Thread(this, "load-" + index);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            selector.wakeup();
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+            long tickNanos = 1_000_000_000L / 60; //Until WELCOME gives the server's rate
+            try {
+                while (running) {
+                    long wait = (nextTick - System.nanoTime()) / 1_000_000;
+                    if (wait > 0)
+                        selector.select(wait);
+                    else
+                        selector.selectNow();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Session session = (Session) key.attachment();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isReadable())
+                            session.read(readBuffer, this);
+                        if (key.isValid() && key.isWritable())
+                            session.flush();
+                    }
+
+                    //Sessions sample input on one shared clock at the server's tick rate
+                    long now = System.nanoTime();
+                    if (now >= nextTick) {
+                        for (Session session : sessions) {
+                            if (session.tickRate > 0)
+                                tickNanos = 1_000_000_000L / session.tickRate;
+                            session.tick();
+                        }
+                        nextTick = Math.max(nextTick + tickNanos, now - tickNanos);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Session session : sessions) {
+                session.close();
+            }
+        }
+
+        void recordLatency(long micros) {
+            latency[(int) Math.min(LATENCY_BUCKETS - 1, Math.max(0, micros) / LATENCY_BUCKET_MICROS)]++;
+        }
+    }
+
+    // One simulated explorer; every method runs on its shard's thread
+    private static class Session {
+        final int id;
+        private final InputMode input;
+        private final Random random;
+        private final Particle sprite;
+        private SocketChannel channel;
+        private SelectionKey key;
+
+        private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        private ByteBuffer out = ByteBuffer.allocate(1024); // bytes the socket did not take yet, in read mode
+        private final ExplorerProtocol.FrameReader reader = new ExplorerProtocol.FrameReader();
+        private final ExplorerProtocol.FrameWriter inputWriter = new ExplorerProtocol.FrameWriter(64);
+        private final ExplorerProtocol.FrameWriter ackWriter = new ExplorerProtocol.FrameWriter(64);
+        private final ExplorerProtocol.StateFrame frame = new ExplorerProtocol.StateFrame();
+        private final DeltaCodec.Decoder deltaDecoder = new DeltaCodec.Decoder();
+        private ReckonCodec.Decoder reckonDecoder;
+        private InputPredictor predictor;
+        int tickRate;
+
+        //Input script state
+        private int buttons, holdTicks;
+        private boolean sweepRight = true;
+        private double sweepRowY;
+
+        //Measured window only
+        long frames, bytes, lost, latencySumMicros, latencyMaxMicros;
+        private int lastSequence;
+        private boolean closed;
+        volatile boolean droppedByServer; // the server closed the connection, e.g. for lagging
+
+        Session(int id, InputMode input, Random random, float x, float y) {
+            this.id = id;
+            this.input = input;
+            this.random = random;
+            sprite = new Particle(x, y, 0, 0);
+            sweepRowY = y;
+            out.flip();
+        }
+
+        void connect(String host, int port, ExplorerProtocol.FrameWriter helloWriter) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ByteBuffer hello = ExplorerProtocol.writeHello(helloWriter, (float) sprite.x, (float) sprite.y);
+            while (hello.hasRemaining())
+                channel.write(hello);
+            channel.configureBlocking(false);
+        }
+
+        double lossRatio() {
+            return frames + lost == 0 ? 0 : (double) lost / (frames + lost);
+        }
+
+        void read(ByteBuffer buffer, Shard shard) {
+            try {
+                buffer.clear();
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    droppedByServer = true;
+                    close();
+                    return;
+                }
+                totalBytes.add(n);
+                boolean measuring = System.nanoTime() >= measureFrom;
+                if (measuring)
+                    bytes += n;
+
+                buffer.flip();
+                if (in.remaining() < buffer.remaining())
+                    throw new IOException("Frame larger than the receive buffer");
+                in.put(buffer).flip();
+                byte type;
+                while ((type = reader.read(in)) != -1) {
+                    handle(type, reader.payload(), measuring, shard);
+                }
+                in.compact();
+            } catch (IOException e) {
+                System.out.println("Explorer " + id + ": " + e.getMessage());
+                droppedByServer = true;
+                close();
+            }
+        }
+
+        private void handle(byte type, ByteBuffer payload, boolean measuring, Shard shard) throws IOException {
+            if (type == ExplorerProtocol.STATE || type == ExplorerProtocol.DELTA || type == ExplorerProtocol.RECKON) {
+                long latency = ExplorerProtocol.epochMicros() - ExplorerProtocol.stampMicros(payload);
+                int sequence = ExplorerProtocol.stampSequence(payload);
+                totalFrames.increment();
+                if (measuring) {
+                    frames++;
+                    if (lastSequence != 0 && sequence > lastSequence + 1)
+                        lost += sequence - lastSequence - 1;
+                    latencySumMicros += Math.max(0, latency);
+                    latencyMaxMicros = Math.max(latencyMaxMicros, latency);
+                    shard.recordLatency(latency);
+                }
+                lastSequence = sequence;
+            }
+
+            switch (type) {
+                case ExplorerProtocol.WELCOME -> {
+                    tickRate = payload.getInt();
+                    reckonDecoder = new ReckonCodec.Decoder(payload.getFloat(), payload.getLong());
+                    predictor = new InputPredictor(sprite, tickRate);
+                }
+                case ExplorerProtocol.MOVE -> {
+                    if (predictor != null)
+                        predictor.reconcile(payload.getFloat(), payload.getFloat(), payload.getInt());
+                }
+                case ExplorerProtocol.STATE -> ExplorerProtocol.readState(payload, frame);
+                case ExplorerProtocol.DELTA -> {
+                    int number = deltaDecoder.decode(payload, frame);
+                    if (number >= 0)
+                        send(ExplorerProtocol.writeAck(ackWriter, number));
+                }
+                case ExplorerProtocol.RECKON -> {
+                    if (reckonDecoder != null) {
+                        reckonDecoder.apply(payload);
+                        reckonDecoder.toFrame(frame);
+                    }
+                }
+                default -> {}
+            }
+        }
+
+        // One client tick: pick the buttons from the script and let the predictor batch them
+        void tick() {
+            if (closed || predictor == null)
+                return;
+            if (reckonDecoder != null)
+                reckonDecoder.step();
+            ByteBuffer frame = predictor.tick(nextButtons(), inputWriter);
+            if (frame != null)
+                send(frame);
+        }
+
+        private int nextButtons() {
+            switch (input) {
+                case RANDOM -> {
+                    if (--holdTicks <= 0) {
+                        holdTicks = 30 + random.nextInt(90);
+                        int horizontal = new int[]{0, ExplorerProtocol.BUTTON_LEFT, ExplorerProtocol.BUTTON_RIGHT}[random.nextInt(3)];
+                        int vertical = new int[]{0, ExplorerProtocol.BUTTON_UP, ExplorerProtocol.BUTTON_DOWN}[random.nextInt(3)];
+                        buttons = horizontal | vertical;
+                    }
+                    return buttons;
+                }
+                case SWEEP -> {
+                    //Across, then down to the next row, then back
+                    if (sprite.y < sweepRowY - 1)
+                        return ExplorerProtocol.BUTTON_DOWN;
+                    if (sweepRight && sprite.x >= 1270 || !sweepRight && sprite.x <= 10) {
+                        sweepRight = !sweepRight;
+                        sweepRowY = sprite.y + 40 > 710 ? 10 : sprite.y + 40;
+                        return sweepRowY < sprite.y ? ExplorerProtocol.BUTTON_UP : ExplorerProtocol.BUTTON_DOWN;
+                    }
+                    if (sprite.y > sweepRowY + 1)
+                        return ExplorerProtocol.BUTTON_UP;
+                    return sweepRight ? ExplorerProtocol.BUTTON_RIGHT : ExplorerProtocol.BUTTON_LEFT;
+                }
+                default -> {
+                    return 0;
+                }
+            }
+        }
+
+        // Writes what the socket takes now and keeps the rest for OP_WRITE
+        private void send(ByteBuffer frame) {
+            if (closed)
+                return;
+            try {
+                if (!out.hasRemaining())
+                    channel.write(frame);
+                if (frame.hasRemaining()) {
+                    out.compact();
+                    if (out.remaining() < frame.remaining()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + frame.remaining()));
+                        out.flip();
+                        bigger.put(out);
+                        out = bigger;
+                    }
+                    out.put(frame).flip();
+                    flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() {
+            try {
+                channel.write(out);
+                key.interestOps(out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (key != null)
+                    key.cancel();
+                channel.close();
+            } catch (IOException ignored) {
+                //Already gone
+            }
+        }
+    }
+}
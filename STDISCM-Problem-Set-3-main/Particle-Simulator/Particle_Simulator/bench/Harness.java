@@ -0,0 +1,195 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// A small JMH-style runner for BenchmarkSuite, since the project has no build tool to pull in JMH.
+// Each benchmark and parameter runs in a fresh JVM fork (by default), gets timed warmup and
+// measurement iterations, and is reported as mean time per invocation with a 99.9% error margin.
+// Results can be written as CSV and compared against a CSV from an earlier commit.
+//
+// Options: -f forks (0 runs in this JVM), -wi warmup iterations, -i measurement iterations,
+//          -r seconds per iteration, --csv file, --baseline file, then an optional name regex.
+public class Harness {
+    // One invocation of the measured code; the result is sunk so the JIT cannot drop the work
+    interface Workload {
+        long run();
+    }
+
+    // Builds the state a workload needs for one parameter, outside the timed region
+    interface Setup {
+        Workload create(int param);
+    }
+
+    record Case(String name, String paramName, int[] params, Setup setup) {}
+
+    record Result(String name, int param, double score, double error, int samples) {}
+
+    // 99.9% two-sided normal quantile, the same confidence JMH reports
+    private static final double Z_999 = 3.291;
+
+    static volatile long sink;
+
+    private int forks = 1, warmups = 3, iterations = 5;
+    private double iterationSeconds = 1;
+    private Path csv, baseline;
+    private Pattern filter = Pattern.compile(".*");
+
+    static void run(List<Case> cases, Class<?> suite, String[] args) throws Exception {
+        Harness harness = new Harness();
+        List<String> rest = harness.parse(args);
+
+        //A fork runs one case and prints its iteration scores for the parent to collect
+        if (rest.size() == 3 && rest.get(0).equals("--child")) {
+            Case c = find(cases, rest.get(1));
+            double[] scores = harness.measure(c, Integer.parseInt(rest.get(2)), false);
+            StringBuilder line = new StringBuilder("SCORES");
+            for (double score : scores)
+                line.append(' ').append(score);
+            System.out.println(line);
+            return;
+        }
+        if (!rest.isEmpty())
+            harness.filter = Pattern.compile(rest.get(0));
+
+        List<Result> results = new ArrayList<>();
+        for (Case c : cases) {
+            if (!harness.filter.matcher(c.name).find())
+                continue;
+            for (int param : c.params) {
+                double[] scores = harness.forks == 0
+                        ? harness.measure(c, param, true)
+                        : harness.fork(suite, c, param);
+                Result result = summarize(c.name, param, scores);
+                results.add(result);
+                System.out.printf("%-28s %18s  %14.3f +- %10.3f ns/op%n", result.name, c.paramName + "=" + param, result.score, result.error);
+            }
+        }
+        harness.report(results);
+    }
+
+    private List<String> parse(String[] args) {
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f" -> forks = Integer.parseInt(args[++i]);
+                case "-wi" -> warmups = Integer.parseInt(args[++i]);
+                case "-i" -> iterations = Integer.parseInt(args[++i]);
+                case "-r" -> iterationSeconds = Double.parseDouble(args[++i]);
+                case "--csv" -> csv = Path.of(args[++i]);
+                case "--baseline" -> baseline = Path.of(args[++i]);
+                default -> rest.add(args[i]);
+            }
+        }
+        return rest;
+    }
+
+    private static Case find(List<Case> cases, String name) {
+        for (Case c : cases) {
+            if (c.name.equals(name))
+                return c;
+        }
+        throw new IllegalArgumentException("Unknown benchmark: " + name);
+    }
+
+    // Runs warmup then measurement iterations, each as many invocations as fit in the iteration time
+    private double[] measure(Case c, int param, boolean verbose) {
+        Workload workload = c.setup.create(param);
+        long iterationNanos = (long) (iterationSeconds * 1e9);
+        double[] scores = new double[iterations];
+        for (int i = 0; i < warmups + iterations; i++) {
+            long ops = 0, sum = 0;
+            long start = System.nanoTime(), elapsed;
+            do {
+                sum += workload.run();
+                ops++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < iterationNanos);
+            sink = sum;
+
+            double score = (double) elapsed / ops;
+            if (i >= warmups)
+                scores[i - warmups] = score;
+            if (verbose)
+                System.out.printf("  %s %-8s %d: %.3f ns/op%n", c.name, i < warmups ? "warmup" : "iter", i, score);
+        }
+        return scores;
+    }
+
+    // Runs the case in `forks` fresh JVMs with this JVM's classpath and flags, and pools their scores
+    private double[] fork(Class<?> suite, Case c, int param) throws IOException, InterruptedException {
+        List<Double> scores = new ArrayList<>();
+        for (int f = 0; f < forks; f++) {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), suite.getName(),
+                    "-wi", String.valueOf(warmups), "-i", String.valueOf(iterations), "-r", String.valueOf(iterationSeconds),
+                    "--child", c.name, String.valueOf(param)));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith("SCORES")) {
+                        for (String score : line.substring(6).trim().split(" "))
+                            scores.add(Double.parseDouble(score));
+                    } else {
+                        System.out.println("  " + line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0)
+                throw new IllegalStateException(c.name + " fork exited with " + process.exitValue());
+        }
+        return scores.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private static Result summarize(String name, int param, double[] scores) {
+        double mean = Arrays.stream(scores).average().orElse(Double.NaN);
+        double variance = 0;
+        for (double score : scores)
+            variance += (score - mean) * (score - mean);
+        variance /= Math.max(1, scores.length - 1);
+        double error = scores.length > 1 ? Z_999 * Math.sqrt(variance / scores.length) : Double.NaN;
+        return new Result(name, param, mean, error, scores.length);
+    }
+
+    // Prints the final table, marks changes against the baseline that fall outside both error margins
+    private void report(List<Result> results) throws IOException {
+        Map<String, Result> base = baseline != null ? readCsv(baseline) : Map.of();
+        System.out.println();
+        System.out.printf("%-28s %10s  %5s  %14s   %10s  %s%n", "Benchmark", "(param)", "Cnt", "Score", "Error", "Units");
+        for (Result r : results) {
+            String change = "";
+            Result old = base.get(r.name + "/" + r.param);
+            if (old != null) {
+                double delta = (r.score - old.score) / old.score * 100;
+                boolean significant = Math.abs(r.score - old.score) > r.error + old.error;
+                change = String.format("  %+6.1f%% vs baseline%s", delta, significant ? "" : " (within error)");
+            }
+            System.out.printf("%-28s %10d  %5d  %14.3f +- %10.3f  ns/op%s%n", r.name, r.param, r.samples, r.score, r.error, change);
+        }
+
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+                out.println("benchmark,param,samples,score,error,unit");
+                for (Result r : results)
+                    out.printf(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,ns/op%n", r.name, r.param, r.samples, r.score, r.error);
+            }
+        }
+    }
+
+    private static Map<String, Result> readCsv(Path file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            String[] f = line.split(",");
+            if (f[0].equals("benchmark"))
+                continue;
+            int param = Integer.parseInt(f[1]);
+            results.put(f[0] + "/" + param, new Result(f[0], param, Double.parseDouble(f[3]), Double.parseDouble(f[4]), Integer.parseInt(f[2])));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Encode + decode cost and size of one STATE message, old text format against ExplorerProtocol.
+//
+// Run with: java -cp <classes> ProtocolBenchmark [particlesInView] [iterations]
+public class ProtocolBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        Random random = new Random(7);
+        double originX = 640, originY = 360;
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = originX + (random.nextDouble() * 2 - 1) * 33;
+            ys[i] = originY + (random.nextDouble() * 2 - 1) * 19;
+        }
+
+        ExplorerProtocol.StateEncoder encoder = new ExplorerProtocol.StateEncoder(new ExplorerProtocol.FrameWriter());
+        ExplorerProtocol.StateFrame frame = new ExplorerProtocol.StateFrame();
+        double sink = 0;
+        int textBytes = 0, binaryBytes = 0;
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int it = 0; it < iterations; it++) {
+                //The text format as Canvas.ExplorerHandler used to send it
+                StringBuilder res = new StringBuilder("STATE ");
+                for (int i = 0; i < n; i++) {
+                    res.append("P ").append(xs[i]).append(" ").append(ys[i]).append(" ");
+                }
+                String message = res.toString();
+                textBytes = message.length();
+
+                String[] temp = message.split(" ");
+                for (int i = 1; i < temp.length; i += 3) {
+                    sink += Double.parseDouble(temp[i + 1]) + Double.parseDouble(temp[i + 2]);
+                }
+            }
+            long text = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int it = 0; it < iterations; it++) {
+                encoder.begin(0, it, originX, originY);
+                for (int i = 0; i < n; i++) {
+                    encoder.particle(xs[i], ys[i]);
+                }
+                encoder.beginExplorers();
+                ByteBuffer encoded = encoder.finish();
+                binaryBytes = encoded.remaining();
+
+                //Skip the length, version and type bytes as FrameReader would
+                encoded.position(ExplorerProtocol.HEADER_SIZE);
+                ExplorerProtocol.readState(encoded, frame);
+                sink += frame.particleX[n - 1];
+            }
+            long binary = System.nanoTime() - start;
+
+            if (round == 1) {
+                System.out.printf("text    %8.1f us/message  %7d bytes%n", text / 1e3 / iterations, textBytes);
+                System.out.printf("binary  %8.1f us/message  %7d bytes%n", binary / 1e3 / iterations, binaryBytes);
+            }
+        }
+        System.out.println("checksum " + sink);
+    }
+}
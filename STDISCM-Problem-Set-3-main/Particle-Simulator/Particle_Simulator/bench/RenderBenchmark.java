@@ -0,0 +1,111 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+// Frame times for drawing the developer view. Compares the old path, a fresh back buffer and one
+// fillOval per particle every frame, against the persistent RasterRenderer and the DensityHeatmap
+// used above render.heatmapThreshold. Runs headless; past a million particles only the heatmap
+// is measured, the per-particle paths take seconds a frame there.
+//
+// Run with: java -Djava.awt.headless=true -cp <classes> RenderBenchmark [particles] [frames] [threads]
+public class RenderBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(42);
+        int[] x = new int[n], y = new int[n];
+        WorldSnapshot snapshot = new WorldSnapshot(n);
+        snapshot.prepare(0, n);
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(WIDTH);
+            y[i] = random.nextInt(HEIGHT);
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double velocity = 50 + random.nextDouble() * 450;
+            snapshot.x[i] = x[i];
+            snapshot.y[i] = y[i];
+            snapshot.vx[i] = (float) (velocity * Math.cos(angle));
+            snapshot.vy[i] = (float) (velocity * Math.sin(angle));
+        }
+
+        RasterRenderer renderer = new RasterRenderer(WIDTH, HEIGHT, 10);
+        int green = Color.GREEN.getRGB();
+        Runnable legacy = () -> {
+            BufferedImage offscreen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = offscreen.createGraphics();
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.setColor(Color.GREEN);
+            for (int i = 0; i < n; i++) {
+                g.fillOval(x[i] - 5, y[i] - 5, 10, 10);
+            }
+            g.dispose();
+        };
+        Runnable raster = () -> {
+            renderer.clear(Color.BLACK);
+            for (int i = 0; i < n; i++) {
+                renderer.disc(x[i] - 5, y[i] - 5, green);
+            }
+        };
+
+        DensityHeatmap heatmap = new DensityHeatmap(WIDTH, HEIGHT, threads);
+        Runnable density = () -> heatmap.render(snapshot, 0.01, renderer.pixels());
+
+        //Warm up before measuring
+        boolean perParticle = n <= 1_000_000;
+        if (perParticle) {
+            measure(frames / 4, legacy);
+            measure(frames / 4, raster);
+        }
+        measure(frames / 4, density);
+
+        if (perParticle) {
+            report("createImage + fillOval", measure(frames, legacy));
+            report("RasterRenderer.disc", measure(frames, raster));
+        }
+        report("DensityHeatmap.render", measure(frames, density));
+    }
+
+    // Returns per-frame nanos sorted, with the GC count and time over the run appended
+    private static long[] measure(int frames, Runnable frame) {
+        long[] times = new long[frames + 2];
+        long collections = gcCount(), gcMillis = gcMillis();
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            frame.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times, 0, frames);
+        times[frames] = gcCount() - collections;
+        times[frames + 1] = gcMillis() - gcMillis;
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        int frames = times.length - 2;
+        System.out.printf("%-24s p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms  %4d GCs %5d ms%n", name,
+                times[frames / 2] / 1e6, times[(int) (frames * 0.99)] / 1e6, times[frames - 1] / 1e6,
+                times[frames], times[frames + 1]);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += gc.getCollectionTime();
+        return millis;
+    }
+}
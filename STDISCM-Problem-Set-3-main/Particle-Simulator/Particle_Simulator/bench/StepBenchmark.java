@@ -0,0 +1,85 @@
+import java.util.Random;
+
+// Microbenchmark for the per-particle step cost. Compares the old trig-per-tick model
+// against the cartesian Particle.move and the array-based ParticleStore.step, scalar and vector.
+//
+// Run with: java --add-modules jdk.incubator.vector -cp <classes> StepBenchmark [particles] [ticks]
+public class StepBenchmark {
+    private static final double DELTA_TIME = 0.05;
+
+    // The pre-cartesian physics, kept here only as the baseline
+    static final class LegacyParticle {
+        double x, y, angle, velocity;
+
+        LegacyParticle(double x, double y, double angle, double velocity) {
+            this.x = x;
+            this.y = y;
+            this.angle = angle;
+            this.velocity = velocity;
+        }
+
+        void move(double deltaTime) {
+            double newX = x + velocity * Math.cos(Math.toRadians(angle)) * deltaTime;
+            double newY = y + velocity * Math.sin(Math.toRadians(angle)) * deltaTime;
+            x = newX;
+            y = newY;
+
+            if (newX < 0 || newX > 1280) {
+                angle = 180 - angle;
+            }
+            if (newY < 0 || newY > 720) {
+                angle = -angle;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(42);
+        LegacyParticle[] legacy = new LegacyParticle[n];
+        Particle[] particles = new Particle[n];
+        ParticleStore store = new ParticleStore(n);
+        ParticleStore vectorStore = new ParticleStore(n, StepKernel.create(SimulationConfig.Kernel.VECTOR));
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble() * 1280;
+            double y = random.nextDouble() * 720;
+            double angle = random.nextDouble() * 360;
+            double velocity = 50 + random.nextDouble() * 450;
+            legacy[i] = new LegacyParticle(x, y, angle, velocity);
+            particles[i] = new Particle(x, y, angle, velocity);
+            store.add(x, y, angle, velocity);
+            vectorStore.add(x, y, angle, velocity);
+        }
+
+        //Warm up every variant before measuring
+        for (int round = 0; round < 3; round++) {
+            measure(ticks, () -> { for (LegacyParticle p : legacy) p.move(DELTA_TIME); });
+            measure(ticks, () -> { for (Particle p : particles) p.move(DELTA_TIME); });
+            measure(ticks, () -> store.step(DELTA_TIME));
+            measure(ticks, () -> vectorStore.step(DELTA_TIME));
+        }
+
+        report("legacy trig Particle.move", n, ticks, measure(ticks, () -> { for (LegacyParticle p : legacy) p.move(DELTA_TIME); }));
+        report("cartesian Particle.move", n, ticks, measure(ticks, () -> { for (Particle p : particles) p.move(DELTA_TIME); }));
+        report("ParticleStore.step", n, ticks, measure(ticks, () -> store.step(DELTA_TIME)));
+        report("ParticleStore.step " + vectorStore.kernel().name(), n, ticks, measure(ticks, () -> vectorStore.step(DELTA_TIME)));
+
+        //Keep results observable so the loops are not dead code
+        double checksum = legacy[0].x + particles[0].x + store.x[0] + vectorStore.x[0];
+        System.out.println("checksum " + checksum);
+    }
+
+    private static long measure(int ticks, Runnable tick) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            tick.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int n, int ticks, long nanos) {
+        System.out.printf("%-36s %8.2f ns/particle-step%n", name, (double) nanos / ((long) n * ticks));
+    }
+}
@@ -0,0 +1,151 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Applies explorers' queued inputs and builds their state frames once per simulation tick, for
+// every ExplorerServer mode. The simulation thread only wakes the stage; the stage takes the
+// newest snapshot, builds the views of the explorers that are due in parallel and queues the
+// encoded frames on their sessions, then tells the network layer. Ticks that pass while a
+// broadcast is still running are folded into the next one, so a frame is never built twice
+// from the same tick.
+public class BroadcastStage {
+    private static final int SESSIONS_PER_TASK = 8;
+
+    private final SimulationEngine engine;
+    private final List<ExplorerSession> sessions;
+    private final Runnable framesReady;
+    private final ForkJoinPool pool;
+    private final Runnable wake = this::wake;
+    private ExplorerSession[] due = new ExplorerSession[64];
+    private Thread thread;
+    private volatile boolean running;
+    private long lastTick = -1;
+
+    //Metrics
+    private volatile int queuedFrames;
+    private volatile long evictedClients;
+    private final LongAdder droppedFrames = new LongAdder(); // added to by the build tasks
+
+    // `framesReady` runs on the stage thread after each broadcast that queued anything
+    BroadcastStage(SimulationEngine engine, List<ExplorerSession> sessions, Runnable framesReady) {
+        this.engine = engine;
+        this.sessions = sessions;
+        this.framesReady = framesReady;
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "broadcast");
+        thread.setDaemon(true);
+        thread.start();
+        engine.addTickListener(wake);
+    }
+
+    void stop() {
+        engine.removeTickListener(wake);
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdown();
+    }
+
+    // Explorers whose previous frame was still unsent at the latest broadcast
+    int queuedFrames() {
+        return queuedFrames;
+    }
+
+    // Frames replaced by a newer one before they were sent, over all explorers so far
+    long droppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    // Explorers disconnected for falling behind by more than explorer.maxLag
+    long evictedClients() {
+        return evictedClients;
+    }
+
+    private void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.park(this);
+
+            int count = 0;
+            boolean moved = false;
+            //Every explorer's frame comes from the same tick
+            WorldSnapshot snapshot = engine.acquireSnapshot();
+            try {
+                if (snapshot.tick == lastTick)
+                    continue; //Woken without a new tick
+                lastTick = snapshot.tick;
+
+                long now = System.nanoTime();
+                int queued = 0;
+                for (ExplorerSession session : sessions) {
+                    //Inputs go first so this tick's frames already show the explorer where it moved
+                    moved |= session.applyInputs();
+                    queued += session.queuedFrames();
+                    //One stalled client is cut off rather than holding a buffer forever
+                    if (session.isLagging(now)) {
+                        if (session.evict())
+                            evictedClients++;
+                        continue;
+                    }
+                    if (!session.due(lastTick))
+                        continue;
+                    if (count == due.length)
+                        due = Arrays.copyOf(due, count * 2);
+                    due[count++] = session;
+                }
+                queuedFrames = queued;
+                if (count > 0)
+                    pool.invoke(new BuildTask(due, snapshot, 0, count));
+            } finally {
+                snapshot.release();
+            }
+
+            Arrays.fill(due, 0, count, null);
+            if (count > 0 || moved)
+                framesReady.run();
+        }
+    }
+
+    // Builds the frames of due[from, to), splitting the range across the pool
+    private class BuildTask extends RecursiveAction {
+        private final ExplorerSession[] due;
+        private final WorldSnapshot snapshot;
+        private final int from, to;
+
+        BuildTask(ExplorerSession[] due, WorldSnapshot snapshot, int from, int to) {
+            this.due = due;
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SESSIONS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    ByteBuffer frame = due[i].buildState(snapshot, sessions);
+                    if (frame != null && !due[i].offer(frame))
+                        droppedFrames.increment();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BuildTask(due, snapshot, from, mid), new BuildTask(due, snapshot, mid, to));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import java.nio.file.Path;
+
+// Settings for world checkpoints, read from system properties like SimulationConfig,
+// e.g. java -Dcheckpoint.interval=30 -jar STDISCM-Problem-Set-3-Server.jar
+public class CheckpointConfig {
+    final Path file;           // null turns checkpoints off, writing and restoring
+    final int intervalSeconds; // between checkpoints; 0 only restores
+    final boolean restore;     // load the file on startup when it exists
+
+    CheckpointConfig(Path file, int intervalSeconds, boolean restore) {
+        this.file = file;
+        this.intervalSeconds = Math.max(0, intervalSeconds);
+        this.restore = restore;
+    }
+
+    static CheckpointConfig fromSystemProperties() {
+        String file = System.getProperty("checkpoint.file", "world.checkpoint");
+        return new CheckpointConfig(
+                file.isEmpty() ? null : Path.of(file),
+                Integer.getInteger("checkpoint.interval", 60),
+                Boolean.parseBoolean(System.getProperty("checkpoint.restore", "true")));
+    }
+}
@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Writes a WorldCheckpoint every checkpoint.interval seconds. The store is copied into a snapshot
+// on the simulation thread between two ticks, so the file holds one consistent tick at the cost
+// of a memcpy; writing the file, flushing it to disk and swapping it in all happen on this class's
+// own thread while the simulation carries on. That thread is a daemon and nothing stops it: a
+// checkpoint cut short by the process exiting only leaves the temporary file behind, never a
+// broken checkpoint.
+public class Checkpointer {
+    private final SimulationEngine engine;
+    private final CheckpointConfig config;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final WorldCheckpoint.Snapshot snapshot = new WorldCheckpoint.Snapshot();
+    private final AtomicBoolean writing = new AtomicBoolean(); // one checkpoint in flight at a time, it owns the snapshot
+
+    Checkpointer(SimulationEngine engine, CheckpointConfig config) {
+        this.engine = engine;
+        this.config = config;
+    }
+
+    void start() {
+        executor.scheduleWithFixedDelay(this::checkpoint, config.intervalSeconds, config.intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void checkpoint() {
+        if (!writing.compareAndSet(false, true))
+            return;
+        engine.withParticles(particles -> {
+            try {
+                snapshot.copy(engine.tickCount(), particles);
+                executor.execute(this::write);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                //Never let a failed checkpoint take the simulation thread down with it, nor a
+                //snapshot that no longer fits in the heap
+                writing.set(false);
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void write() {
+        try {
+            snapshot.write(config.file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writing.set(false);
+        }
+    }
+}
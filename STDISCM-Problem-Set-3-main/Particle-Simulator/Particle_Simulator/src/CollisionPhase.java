@@ -0,0 +1,241 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Elastic particle-particle collisions, run by SimulationEngine after every step when
+// sim.collisions is on. Every particle is a disc of sim.collisionRadius with the same mass.
+//
+// Broad phase: a uniform grid with cells at least one diameter wide, rebuilt each tick with a
+// counting sort, so touching discs are always in the same or neighbouring cells. Particles are
+// gathered into cell order first, so a cell and its neighbours sit next to each other in memory.
+// Each cell pairs with itself, its right neighbour and the three cells below, so every pair is
+// tested once.
+//
+// Narrow phase: a row of cells only writes particles in itself and the row below, so even rows
+// are resolved in parallel, then odd rows, and no two tasks ever touch the same particle.
+//
+// Resolution: two overlapping discs moving towards each other swap their velocity components
+// along the line between their centres, which keeps momentum and kinetic energy. The overlap is
+// split evenly between them so the pair's centre of mass stays put.
+public class CollisionPhase {
+    // A cell one diameter wide fits a few discs that don't overlap. A crowd means a point spawn
+    // that hasn't spread out yet; only this many of a cell's particles take part until it does,
+    // which keeps a 100k-particle spawn from costing n^2 tests in one cell.
+    static final int MAX_CELL_OCCUPANCY = 32;
+    private static final double MIN_CELL_SIZE = 4; // smaller cells only add empty cells to walk
+    private static final int ROWS_PER_TASK = 4;
+    private static final int PARTICLES_PER_TASK = 16_384;
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private final double diameter, diameterSquared;
+    private final double cellSize;
+    private final int columns, rows;
+    private final int[] cellStart;
+    private int[] slot = new int[0]; // where each particle of the store sits in cell order
+    //Particles gathered in cell order
+    private double[] x = new double[0], y = new double[0], vx = new double[0], vy = new double[0];
+    private final LongAdder contacts = new LongAdder();
+
+    CollisionPhase(double radius) {
+        diameter = 2 * radius;
+        diameterSquared = diameter * diameter;
+        cellSize = Math.max(diameter, MIN_CELL_SIZE);
+        //One extra row and column so particles exactly on the far walls get a cell
+        columns = (int) Math.ceil(WIDTH / cellSize) + 1;
+        rows = (int) Math.ceil(HEIGHT / cellSize) + 1;
+        cellStart = new int[columns * rows + 1];
+    }
+
+    // Collisions resolved so far, one per approaching pair
+    long contacts() {
+        return contacts.sum();
+    }
+
+    // Resolves collisions among particles [0, count) of the store, across `pool` when given
+    void resolve(ParticleStore particles, int count, ForkJoinPool pool) {
+        sort(particles, count);
+        move(particles, count, pool, true);
+        for (int parity = 0; parity < 2; parity++) {
+            int passRows = (rows - parity + 1) / 2;
+            if (pool == null)
+                resolveRows(parity, 0, passRows);
+            else
+                pool.invoke(new RowTask(parity, 0, passRows));
+        }
+        move(particles, count, pool, false);
+    }
+
+    // Counting sort by cell, the same scheme as SpatialGrid, except that it records each
+    // particle's slot instead of each slot's particle
+    private void sort(ParticleStore particles, int count) {
+        if (slot.length < count) {
+            int capacity = Math.max(count, slot.length + (slot.length >> 1));
+            slot = new int[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+        }
+        double[] px = particles.x, py = particles.y;
+        int[] start = cellStart;
+        Arrays.fill(start, 0);
+        for (int i = 0; i < count; i++) {
+            int c = cellOf(px[i], py[i]);
+            slot[i] = c;
+            start[c + 1]++;
+        }
+        int cells = columns * rows;
+        for (int c = 0; c < cells; c++) {
+            start[c + 1] += start[c];
+        }
+        for (int i = 0; i < count; i++) {
+            slot[i] = start[slot[i]]++;
+        }
+        for (int c = cells; c > 0; c--) {
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+    }
+
+    private int cellOf(double x, double y) {
+        int c = (int) (x / cellSize), r = (int) (y / cellSize);
+        c = c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+        r = r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+        return r * columns + c;
+    }
+
+    // Copies particles [0, count) into cell order, or back into the store
+    private void move(ParticleStore particles, int count, ForkJoinPool pool, boolean gather) {
+        if (pool == null || count <= PARTICLES_PER_TASK)
+            move(particles, 0, count, gather);
+        else
+            pool.invoke(new MoveTask(particles, gather, 0, count));
+    }
+
+    private void move(ParticleStore particles, int from, int to, boolean gather) {
+        double[] px = particles.x, py = particles.y, pvx = particles.vx, pvy = particles.vy;
+        int[] slot = this.slot;
+        if (gather) {
+            for (int i = from; i < to; i++) {
+                int s = slot[i];
+                x[s] = px[i];
+                y[s] = py[i];
+                vx[s] = pvx[i];
+                vy[s] = pvy[i];
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                int s = slot[i];
+                px[i] = x[s];
+                py[i] = y[s];
+                pvx[i] = vx[s];
+                pvy[i] = vy[s];
+            }
+        }
+    }
+
+    // Resolves rows parity, parity + 2, ... numbered [from, to) within this pass. In cell order a
+    // cell and its right neighbour are one run of slots, and so are the three cells below it.
+    private void resolveRows(int parity, int from, int to) {
+        double[] x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+        long resolved = 0;
+        for (int k = from; k < to; k++) {
+            int r = parity + 2 * k;
+            int rowStart = r * columns;
+            for (int c = 0; c < columns; c++) {
+                int self = rowStart + c;
+                int end = Math.min(cellStart[self + 1], cellStart[self] + MAX_CELL_OCCUPANCY);
+                int sideEnd = Math.min(cellStart[Math.min(self + 2, rowStart + columns)], end + MAX_CELL_OCCUPANCY);
+                int belowFrom = 0, belowTo = 0;
+                if (r + 1 < rows) {
+                    int below = self + columns;
+                    belowFrom = cellStart[c > 0 ? below - 1 : below];
+                    belowTo = Math.min(cellStart[c + 1 < columns ? below + 2 : below + 1], belowFrom + 3 * MAX_CELL_OCCUPANCY);
+                }
+                for (int a = cellStart[self]; a < end; a++) {
+                    for (int b = a + 1; b < sideEnd; b++)
+                        resolved += collide(x, y, vx, vy, a, b);
+                    for (int b = belowFrom; b < belowTo; b++)
+                        resolved += collide(x, y, vx, vy, a, b);
+                }
+            }
+        }
+        contacts.add(resolved);
+    }
+
+    // Separates the particles in slots a and b if they overlap and bounces them if they
+    // approach; returns 1 for a bounce
+    private int collide(double[] x, double[] y, double[] vx, double[] vy, int a, int b) {
+        double dx = x[b] - x[a], dy = y[b] - y[a];
+        double distanceSquared = dx * dx + dy * dy;
+        //Discs sharing a centre have no line between them, they move apart on their own velocities
+        if (distanceSquared >= diameterSquared || distanceSquared == 0)
+            return 0;
+
+        double distance = Math.sqrt(distanceSquared);
+        double nx = dx / distance, ny = dy / distance;
+
+        double push = (diameter - distance) * 0.5;
+        x[a] = Particle.clamp(x[a] - nx * push, WIDTH);
+        y[a] = Particle.clamp(y[a] - ny * push, HEIGHT);
+        x[b] = Particle.clamp(x[b] + nx * push, WIDTH);
+        y[b] = Particle.clamp(y[b] + ny * push, HEIGHT);
+
+        double approach = (vx[a] - vx[b]) * nx + (vy[a] - vy[b]) * ny;
+        if (approach <= 0)
+            return 0; //Already separating
+        vx[a] -= approach * nx;
+        vy[a] -= approach * ny;
+        vx[b] += approach * nx;
+        vy[b] += approach * ny;
+        return 1;
+    }
+
+    // Splits the rows of one pass in halves down to a few rows per task
+    private class RowTask extends RecursiveAction {
+        private final int parity, from, to;
+
+        RowTask(int parity, int from, int to) {
+            this.parity = parity;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ROWS_PER_TASK) {
+                resolveRows(parity, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTask(parity, from, mid), new RowTask(parity, mid, to));
+        }
+    }
+
+    // Splits a gather or scatter of [from, to) in halves, every particle has a slot of its own
+    private class MoveTask extends RecursiveAction {
+        private final ParticleStore particles;
+        private final boolean gather;
+        private final int from, to;
+
+        MoveTask(ParticleStore particles, boolean gather, int from, int to) {
+            this.particles = particles;
+            this.gather = gather;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARTICLES_PER_TASK) {
+                move(particles, from, to, gather);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MoveTask(particles, gather, from, mid), new MoveTask(particles, gather, mid, to));
+        }
+    }
+}
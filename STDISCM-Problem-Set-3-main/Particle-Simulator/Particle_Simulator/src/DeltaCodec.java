@@ -0,0 +1,373 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Per-explorer delta encoding of the visible set.
+//
+// Particles are identified by their index in the ParticleStore, which never changes, and
+// explorers by their handler ID. Each DELTA frame is numbered and encoded against the newest
+// frame the client has acknowledged. Both sides predict every entry from an anchor position
+// and a fixed-point velocity, and an entry within TOLERANCE of its prediction is not written
+// at all, so steady motion costs nothing. Without a usable acknowledgement, and every
+// KEYFRAME_INTERVAL frames, a keyframe is sent against the empty set so a client can always
+// recover.
+//
+// DELTA payload: stamp (see ExplorerProtocol), int frame, int baseFrame (-1 for a keyframe), particle section, explorer section.
+// A section is an int record count followed by records sorted by id. Each record starts with
+// varint((idGap << 2) | kind); ENTER adds short x, short y, MOVE adds the zigzag varint error
+// against the prediction. Positions are absolute, 1/16 px per unit.
+public class DeltaCodec {
+    static final int HISTORY = 32;
+    static final int KEYFRAME_INTERVAL = 120;
+    static final float POSITION_SCALE = 16f;
+    static final int TOLERANCE = 1;       // in position units, below what the explorer view can show
+    static final int ANCHOR_RESET = 4;    // larger errors (a bounce, a new heading) restart the estimate
+    static final int VELOCITY_SHIFT = 8;  // velocities are in 1/256 position units per frame
+
+    static final int ENTER = 0;
+    static final int LEAVE = 1;
+    static final int MOVE = 2;
+
+    private static final View EMPTY = new View();
+
+    // An entry packs id, x and y into one long so a section sorts by id with Arrays.sort
+    static long pack(int id, int qx, int qy) {
+        return ((long) id << 32) | ((qx & 0xFFFFL) << 16) | (qy & 0xFFFFL);
+    }
+
+    static int id(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static short qx(long entry) {
+        return (short) (entry >>> 16);
+    }
+
+    static short qy(long entry) {
+        return (short) entry;
+    }
+
+    static short quantize(double position) {
+        long q = Math.round(position * POSITION_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    // Sorted entries plus the motion model of each. The velocity is measured from the anchor,
+    // the position and frame where the current straight run started, so it sharpens the longer
+    // an entry keeps its heading. Encoder and decoder run the exact same integer arithmetic.
+    static class Section {
+        long[] entries;
+        int[] anchorX, anchorY, anchorFrame;
+        int[] velX, velY;
+        int count;
+
+        Section(int capacity) {
+            entries = new long[capacity];
+            anchorX = new int[capacity];
+            anchorY = new int[capacity];
+            anchorFrame = new int[capacity];
+            velX = new int[capacity];
+            velY = new int[capacity];
+        }
+
+        void add(int id, double x, double y) {
+            ensure(count + 1);
+            entries[count++] = pack(id, quantize(x), quantize(y));
+        }
+
+        void ensure(int capacity) {
+            if (entries.length >= capacity)
+                return;
+            int newCapacity = Math.max(capacity, entries.length * 2);
+            entries = Arrays.copyOf(entries, newCapacity);
+            anchorX = Arrays.copyOf(anchorX, newCapacity);
+            anchorY = Arrays.copyOf(anchorY, newCapacity);
+            anchorFrame = Arrays.copyOf(anchorFrame, newCapacity);
+            velX = Arrays.copyOf(velX, newCapacity);
+            velY = Arrays.copyOf(velY, newCapacity);
+        }
+
+        int predictX(int i, int frame) {
+            return anchorX[i] + extrapolate(velX[i], frame - anchorFrame[i]);
+        }
+
+        int predictY(int i, int frame) {
+            return anchorY[i] + extrapolate(velY[i], frame - anchorFrame[i]);
+        }
+
+        // A new entry, anchored where it appeared and assumed still
+        void enter(int index, int id, int qx, int qy, int frame) {
+            entries[index] = pack(id, qx, qy);
+            anchorX[index] = qx;
+            anchorY[index] = qy;
+            anchorFrame[index] = frame;
+            velX[index] = 0;
+            velY[index] = 0;
+        }
+
+        // Carries base entry i into this section at its predicted position
+        void predicted(int index, Section base, int i, int frame) {
+            entries[index] = pack(id(base.entries[i]), base.predictX(i, frame), base.predictY(i, frame));
+            anchorX[index] = base.anchorX[i];
+            anchorY[index] = base.anchorY[i];
+            anchorFrame[index] = base.anchorFrame[i];
+            velX[index] = base.velX[i];
+            velY[index] = base.velY[i];
+        }
+
+        // Applies a correction: small errors refine the velocity, large ones restart the run here
+        void corrected(int index, Section base, int i, int frame, int baseFrame, int errorX, int errorY) {
+            int qx = base.predictX(i, frame) + errorX;
+            int qy = base.predictY(i, frame) + errorY;
+            entries[index] = pack(id(base.entries[i]), qx, qy);
+
+            if (Math.abs(errorX) > ANCHOR_RESET || Math.abs(errorY) > ANCHOR_RESET) {
+                int frames = frame - baseFrame;
+                velX[index] = ((qx - qx(base.entries[i])) << VELOCITY_SHIFT) / frames;
+                velY[index] = ((qy - qy(base.entries[i])) << VELOCITY_SHIFT) / frames;
+                anchorX[index] = qx;
+                anchorY[index] = qy;
+                anchorFrame[index] = frame;
+            } else {
+                int frames = frame - base.anchorFrame[i];
+                velX[index] = ((qx - base.anchorX[i]) << VELOCITY_SHIFT) / frames;
+                velY[index] = ((qy - base.anchorY[i]) << VELOCITY_SHIFT) / frames;
+                anchorX[index] = base.anchorX[i];
+                anchorY[index] = base.anchorY[i];
+                anchorFrame[index] = base.anchorFrame[i];
+            }
+        }
+
+        private static int extrapolate(int velocity, int frames) {
+            return (int) (((long) velocity * frames + (1 << (VELOCITY_SHIFT - 1))) >> VELOCITY_SHIFT);
+        }
+    }
+
+    // The entries of one frame, reused as a history slot
+    static class View {
+        int number;
+        //Small to start, every explorer keeps HISTORY of these; sections grow to fit the periphery
+        final Section particles = new Section(32);
+        final Section explorers = new Section(4);
+
+        void clear(int number) {
+            this.number = number;
+            particles.count = 0;
+            explorers.count = 0;
+        }
+
+        void addParticle(int id, double x, double y) {
+            particles.add(id, x, y);
+        }
+
+        void addExplorer(int id, double x, double y) {
+            explorers.add(id, x, y);
+        }
+
+        void toFrame(ExplorerProtocol.StateFrame frame) {
+            int n = particles.count;
+            if (frame.particleX.length < n) {
+                frame.particleX = new float[n];
+                frame.particleY = new float[n];
+            }
+            for (int i = 0; i < n; i++) {
+                frame.particleX[i] = qx(particles.entries[i]) / POSITION_SCALE;
+                frame.particleY[i] = qy(particles.entries[i]) / POSITION_SCALE;
+            }
+            frame.particleCount = n;
+
+            n = explorers.count;
+            if (frame.explorerX.length < n) {
+                frame.explorerX = new float[n];
+                frame.explorerY = new float[n];
+            }
+            for (int i = 0; i < n; i++) {
+                frame.explorerX[i] = qx(explorers.entries[i]) / POSITION_SCALE;
+                frame.explorerY[i] = qy(explorers.entries[i]) / POSITION_SCALE;
+            }
+            frame.explorerCount = n;
+        }
+    }
+
+    // Server side, one per explorer. begin() and encode() run on the sending thread, ack() on the reader.
+    static class Encoder {
+        private final View[] history = new View[HISTORY];
+        private int nextNumber = 1;
+        private volatile int acked = -1;
+
+        Encoder() {
+            for (int i = 0; i < HISTORY; i++) {
+                history[i] = new View();
+            }
+        }
+
+        // Returns the empty view for the next frame, to be filled before encode()
+        View begin() {
+            View view = history[nextNumber % HISTORY];
+            view.clear(nextNumber);
+            return view;
+        }
+
+        void ack(int number) {
+            if (number > acked && number < nextNumber)
+                acked = number;
+        }
+
+        // Forgets acknowledgements so the next frame is a keyframe
+        void reset() {
+            acked = -1;
+        }
+
+        ByteBuffer encode(ExplorerProtocol.FrameWriter writer, long tickMicros, int sequence) {
+            View current = history[nextNumber % HISTORY];
+            Arrays.sort(current.particles.entries, 0, current.particles.count);
+            Arrays.sort(current.explorers.entries, 0, current.explorers.count);
+
+            //A slot older than HISTORY frames has been overwritten, fall back to a keyframe
+            int base = acked;
+            View baseView = EMPTY;
+            if (base > 0 && nextNumber - base < HISTORY && nextNumber % KEYFRAME_INTERVAL != 0)
+                baseView = history[base % HISTORY];
+            else
+                base = -1;
+
+            ExplorerProtocol.beginState(writer, ExplorerProtocol.DELTA, tickMicros, sequence).putInt(current.number).putInt(base);
+            writeSection(writer, baseView.particles, current.particles, current.number, base);
+            writeSection(writer, baseView.explorers, current.explorers, current.number, base);
+            nextNumber++;
+            return writer.finish();
+        }
+
+        // Writes the changes from base to current, then rewrites current to exactly what the
+        // client will reconstruct so later deltas are taken against the client's view
+        private static void writeSection(ExplorerProtocol.FrameWriter writer, Section base, Section current, int frame, int baseFrame) {
+            int countIndex = writer.position();
+            writer.putInt(0);
+
+            long[] baseEntries = base.entries, entries = current.entries;
+            int records = 0, previousId = 0;
+            int i = 0, j = 0;
+            while (i < base.count || j < current.count) {
+                int baseId = i < base.count ? id(baseEntries[i]) : Integer.MAX_VALUE;
+                int currentId = j < current.count ? id(entries[j]) : Integer.MAX_VALUE;
+
+                if (currentId < baseId) {
+                    short qx = qx(entries[j]), qy = qy(entries[j]);
+                    writer.putVarInt((currentId - previousId) << 2 | ENTER).putShort(qx).putShort(qy);
+                    current.enter(j, currentId, qx, qy, frame);
+                    previousId = currentId;
+                    records++;
+                    j++;
+                } else if (baseId < currentId) {
+                    writer.putVarInt((baseId - previousId) << 2 | LEAVE);
+                    previousId = baseId;
+                    records++;
+                    i++;
+                } else {
+                    int errorX = qx(entries[j]) - base.predictX(i, frame);
+                    int errorY = qy(entries[j]) - base.predictY(i, frame);
+
+                    if (Math.abs(errorX) <= TOLERANCE && Math.abs(errorY) <= TOLERANCE) {
+                        //Close enough to the prediction, the client extrapolates it on its own
+                        current.predicted(j, base, i, frame);
+                    } else {
+                        writer.putVarInt((currentId - previousId) << 2 | MOVE)
+                                .putVarInt(zigzag(errorX))
+                                .putVarInt(zigzag(errorY));
+                        current.corrected(j, base, i, frame, baseFrame, errorX, errorY);
+                        previousId = currentId;
+                        records++;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            writer.putIntAt(countIndex, records);
+        }
+    }
+
+    // Client side, rebuilds full views from deltas against its own history
+    static class Decoder {
+        private final View[] history = new View[HISTORY];
+
+        Decoder() {
+            for (int i = 0; i < HISTORY; i++) {
+                history[i] = new View();
+            }
+        }
+
+        // Applies a DELTA payload and fills `frame`. Returns the frame number, which should be
+        // acknowledged, or -1 when the base frame is no longer known and the frame was skipped.
+        int decode(ByteBuffer payload, ExplorerProtocol.StateFrame frame) {
+            ExplorerProtocol.skipStamp(payload);
+            int number = payload.getInt();
+            int base = payload.getInt();
+
+            View baseView = EMPTY;
+            if (base >= 0) {
+                baseView = history[base % HISTORY];
+                if (baseView.number != base || number <= base || number - base >= HISTORY)
+                    return -1;
+            }
+
+            View target = history[number % HISTORY];
+            target.clear(number);
+            readSection(payload, baseView.particles, target.particles, number, base);
+            readSection(payload, baseView.explorers, target.explorers, number, base);
+            target.toFrame(frame);
+            return number;
+        }
+
+        private static void readSection(ByteBuffer payload, Section base, Section out, int frame, int baseFrame) {
+            int records = payload.getInt();
+            out.ensure(base.count + records);
+
+            int count = 0, i = 0, id = 0;
+            for (int r = 0; r < records; r++) {
+                int header = getVarInt(payload);
+                id += header >>> 2;
+
+                //Entries before this record's id moved as predicted
+                while (i < base.count && id(base.entries[i]) < id) {
+                    out.predicted(count++, base, i++, frame);
+                }
+
+                switch (header & 3) {
+                    case ENTER:
+                        out.enter(count++, id, payload.getShort(), payload.getShort(), frame);
+                        break;
+                    case LEAVE:
+                        i++;
+                        break;
+                    case MOVE:
+                        int errorX = unzigzag(getVarInt(payload));
+                        int errorY = unzigzag(getVarInt(payload));
+                        out.corrected(count++, base, i++, frame, baseFrame, errorX, errorY);
+                        break;
+                }
+            }
+            while (i < base.count) {
+                out.predicted(count++, base, i++, frame);
+            }
+            out.count = count;
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        int value = 0, shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
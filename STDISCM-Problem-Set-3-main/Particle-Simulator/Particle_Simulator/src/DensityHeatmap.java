@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Level-of-detail view for worlds with more particles than the screen has room to draw one by
+// one. Each worker counts its slice of the snapshot into a private per-pixel histogram, so the
+// counting needs no atomics; the histograms are then summed row by row and shaded through a
+// log-scaled palette straight into the raster. Every pixel is written, no clear is needed.
+//
+// The counting is bound by cache misses on the histogram, so past TILE_THRESHOLD particles
+// it counts 2x2 pixel tiles instead: a quarter of the memory, with several particles a tile.
+public class DensityHeatmap {
+    private static final int ROWS_PER_TASK = 48;
+    private static final int SATURATION_FACTOR = 16; // a pixel this many times the mean density is drawn at full brightness
+    private static final int MIN_SATURATION = 16;
+    private static final int TILE_THRESHOLD = 2_000_000;
+
+    private final int width, height;
+    private final ForkJoinPool pool;
+    private final int[][] histograms; // one per worker, reused every frame
+    private final int[] palette = new int[256];
+    private int[] shades = new int[0]; // particle count -> colour, up to the current saturation
+    private int tileShift;             // log2 of the tile side, 0 counts single pixels
+    private int tilesWide, tilesHigh;
+
+    DensityHeatmap(int width, int height, int threads) {
+        this.width = width;
+        this.height = height;
+        pool = new ForkJoinPool(threads);
+        histograms = new int[threads][width * height];
+
+        //Black through the particle green to white at the densest pixels
+        for (int i = 0; i < palette.length; i++) {
+            double t = i / (double) (palette.length - 1);
+            int green = (int) Math.min(255, t * 2 * 255);
+            int white = (int) Math.max(0, (t - 0.5) * 2 * 255);
+            palette[i] = (white << 16) | (green << 8) | white;
+        }
+    }
+
+    // Draws the snapshot, each particle `rewind` seconds back along its velocity
+    void render(WorldSnapshot snapshot, double rewind, int[] pixels) {
+        int count = snapshot.size();
+        tileShift = count > TILE_THRESHOLD ? 1 : 0;
+        tilesWide = width >> tileShift;
+        tilesHigh = height >> tileShift;
+        pool.invoke(new CountTask(snapshot, (float) rewind, count, 0, histograms.length));
+
+        //Saturate relative to the mean density so the picture keeps its contrast as the world grows
+        int saturation = (int) Math.max(MIN_SATURATION, (long) count * SATURATION_FACTOR / (tilesWide * tilesHigh));
+        if (shades.length != saturation + 1)
+            buildShades(saturation);
+        pool.invoke(new ShadeTask(pixels, 0, height));
+    }
+
+    private void buildShades(int saturation) {
+        shades = new int[saturation + 1];
+        double scale = (palette.length - 1) / Math.log1p(saturation);
+        for (int c = 1; c <= saturation; c++) {
+            shades[c] = palette[(int) (Math.log1p(c) * scale)];
+        }
+    }
+
+    // Counts particles into histograms [from, to), one contiguous slice of the snapshot each
+    private class CountTask extends RecursiveAction {
+        private final WorldSnapshot snapshot;
+        private final float rewind;
+        private final int count, from, to;
+
+        CountTask(WorldSnapshot snapshot, float rewind, int count, int from, int to) {
+            this.snapshot = snapshot;
+            this.rewind = rewind;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CountTask(snapshot, rewind, count, from, mid),
+                        new CountTask(snapshot, rewind, count, mid, to));
+                return;
+            }
+            int[] histogram = histograms[from];
+            int shift = tileShift, columns = tilesWide, maxX = tilesWide - 1, maxY = tilesHigh - 1;
+            Arrays.fill(histogram, 0, columns * tilesHigh, 0);
+            float[] x = snapshot.x, y = snapshot.y, vx = snapshot.vx, vy = snapshot.vy;
+            int workers = histograms.length;
+            int end = (int) ((long) count * (from + 1) / workers);
+            for (int i = (int) ((long) count * from / workers); i < end; i++) {
+                int tx = (int) (x[i] - vx[i] * rewind) >> shift;
+                int ty = (int) (y[i] - vy[i] * rewind) >> shift;
+                tx = tx < 0 ? 0 : Math.min(tx, maxX);
+                ty = ty < 0 ? 0 : Math.min(ty, maxY);
+                histogram[ty * columns + tx]++;
+            }
+        }
+    }
+
+    // Sums the histograms over rows [from, to) and writes the shaded pixels
+    private class ShadeTask extends RecursiveAction {
+        private final int[] pixels;
+        private final int from, to;
+
+        ShadeTask(int[] pixels, int from, int to) {
+            this.pixels = pixels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ShadeTask(pixels, from, mid), new ShadeTask(pixels, mid, to));
+                return;
+            }
+            int[] shades = DensityHeatmap.this.shades;
+            int top = shades.length - 1;
+            int shift = tileShift, columns = tilesWide, maxY = tilesHigh - 1;
+            for (int py = from; py < to; py++) {
+                int row = Math.min(py >> shift, maxY) * columns;
+                int p = py * width;
+                for (int px = 0; px < width; px++, p++) {
+                    int tile = row + Math.min(px >> shift, columns - 1);
+                    int sum = 0;
+                    for (int[] histogram : histograms) {
+                        sum += histogram[tile];
+                    }
+                    pixels[p] = shades[Math.min(sum, top)];
+                }
+            }
+        }
+    }
+}
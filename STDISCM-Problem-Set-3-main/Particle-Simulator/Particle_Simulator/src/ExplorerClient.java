@@ -6,19 +6,24 @@ import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ExplorerClient extends JFrame implements KeyListener {
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private ServerSocket serverSocket;
-    private Socket replySocket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private final ExplorerProtocol.FrameWriter commandWriter = new ExplorerProtocol.FrameWriter(64);
+    private final ExplorerProtocol.FrameWriter ackWriter = new ExplorerProtocol.FrameWriter(64);
+    private ScheduledExecutorService clientTicker;
+    private volatile int buttons; //INPUT button bits currently held
+    private volatile ReckonCodec.Decoder reckonDecoder;
+    private volatile boolean reckoning; //set by the first RECKON frame
 
     //UI STUFF
     JPanel panel;
@@ -28,8 +33,10 @@ public class ExplorerClient extends JFrame implements KeyListener {
     private final int PERIPHERY_HEIGHT = 19;
 
     //Rendering stuff
-    private List<Particle> particles;
-    private List<Particle> explorers;
+    //Triple buffer: the network thread decodes into its own frame and swaps it into `pendingFrame`,
+    //the EDT swaps its displayed frame for the pending one when a newer frame has arrived
+    private final AtomicReference<ExplorerProtocol.StateFrame> pendingFrame = new AtomicReference<>(new ExplorerProtocol.StateFrame());
+    private ExplorerProtocol.StateFrame displayFrame = new ExplorerProtocol.StateFrame();
     private BufferedImage spriteImage;
     private ECanvas canvas;
     private Particle explorerSprite;
@@ -39,10 +46,10 @@ public class ExplorerClient extends JFrame implements KeyListener {
     private class ECanvas extends JPanel{
         private final int WIDTH = 1280;
         private final int HEIGHT = 720;
+        private final int PARTICLE_RGB = Color.GREEN.getRGB();
+        private final RasterRenderer renderer = new RasterRenderer(WIDTH, HEIGHT, 10);
 
         public ECanvas(){
-            particles = new ArrayList<>();
-            explorers = new ArrayList<>();
             setPreferredSize(new Dimension(WIDTH, HEIGHT));
             setFocusable(true);
             requestFocusInWindow();
@@ -54,15 +61,19 @@ public class ExplorerClient extends JFrame implements KeyListener {
             }
 
             ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
-            executorService.scheduleAtFixedRate(this::calculateFPS, 0, 500, TimeUnit.MILLISECONDS);
+            executorService.scheduleAtFixedRate(this::sampleFPS, 500, 500, TimeUnit.MILLISECONDS);
         }
 
         private void renderExplorerMode(Graphics g) {
             try {
-                g.setColor(Color.GREEN);
-                for (Particle particle : particles) {
-                    int distanceX = (int) (particle.x - explorerSprite.x);
-                    int distanceY = (int) (particle.y - explorerSprite.y);
+                //Pick up the newest decoded frame, if any
+                if (pendingFrame.get().sequence > displayFrame.sequence)
+                    displayFrame = pendingFrame.getAndSet(displayFrame);
+                ExplorerProtocol.StateFrame frame = displayFrame;
+
+                for (int i = 0; i < frame.particleCount; i++) {
+                    int distanceX = (int) (frame.particleX[i] - explorerSprite.x);
+                    int distanceY = (int) (frame.particleY[i] - explorerSprite.y);
                     distanceX = (int) distanceX * (WIDTH/PERIPHERY_WIDTH) + (WIDTH/2);
                     distanceY = (int) distanceY * (HEIGHT/PERIPHERY_HEIGHT) + (HEIGHT/2);
 
@@ -72,13 +83,13 @@ public class ExplorerClient extends JFrame implements KeyListener {
                     if(distanceY > HEIGHT || distanceY < 0)
                         continue;
 
-                    g.fillOval(distanceX, distanceY, 10, 10);
+                    renderer.disc(distanceX, distanceY, PARTICLE_RGB);
                 }
 
                 //Code that draws other explorer sprites
-                for(Particle explorer: explorers){
-                    int distanceX = (int) (explorer.x - explorerSprite.x);
-                    int distanceY = (int) (explorer.y - explorerSprite.y);
+                for(int i = 0; i < frame.explorerCount; i++){
+                    int distanceX = (int) (frame.explorerX[i] - explorerSprite.x);
+                    int distanceY = (int) (frame.explorerY[i] - explorerSprite.y);
                     distanceX = (int) distanceX * (WIDTH/PERIPHERY_WIDTH) + (WIDTH/2);
                     distanceY = (int) distanceY * (HEIGHT/PERIPHERY_HEIGHT) + (HEIGHT/2);
 
@@ -95,97 +106,58 @@ public class ExplorerClient extends JFrame implements KeyListener {
             }
         }
 
-        private void updateFPS() {
-            fps = frameCount;
-            frameCount = 0;
-            lastFPSTime = System.currentTimeMillis();
+        // Frames painted since the previous sample over the time since then, shown every 0.5 s
+        private void sampleFPS() {
+            long now = System.nanoTime();
+            fps = (int) Math.round(framesPainted.getAndSet(0) * 1e9 / (now - lastFPSTime));
+            lastFPSTime = now;
 
-            setTitle("Particle Simulator | FPS: " + calculateFPS() + " | X: "
-                    + explorerSprite.x + " Y: " + explorerSprite.y);
-        }
-
-        private int calculateFPS() {
-            long currentTime = System.currentTimeMillis();
-            long elapsedTime = currentTime - lastFPSTime;
-
-            frameCount++;
-
-            if (elapsedTime >= 1000) {
-                updateFPS();
-            }
-
-            return fps;
+            int shown = fps;
+            SwingUtilities.invokeLater(() -> setTitle("Particle Simulator | FPS: " + shown + " | X: "
+                    + explorerSprite.x + " Y: " + explorerSprite.y));
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
 
-            Image offscreen = createImage(getWidth(), getHeight());
-            Graphics2D offscreenGraphics = (Graphics2D) offscreen.getGraphics();
-            offscreenGraphics.clipRect(0, 0, WIDTH, HEIGHT);
-            offscreenGraphics.setColor(Color.BLACK);
-            offscreenGraphics.fillRect(0,0, WIDTH, HEIGHT);
+            //Same back buffer every frame, particles go straight into its raster
+            renderer.clear(Color.BLACK);
 
-            renderExplorerMode(offscreenGraphics);
+            renderExplorerMode(renderer.graphics());
 
-            calculateFPS();
+            g.drawImage(renderer.image(), 0, 0, this);
 
-            g.drawImage(offscreen, 0, 0, this);
+            //Only painted frames count, repaint requests may be coalesced into one paint
+            framesPainted.incrementAndGet();
         }
 
         void update() {
-            calculateFPS();
-            double deltaTime = 0.05;
-
-            // minimum target FPS: 60
-            long targetFrameTime = 1000 / 60;
-            long currentTime = System.currentTimeMillis();
-
-            // submit rendering tasks for particles
-            //TODO: Get particle coords from server
+            // particle coords arrive on the network thread, the EDT only repaints
             repaint();
-
-            // calculates the time taken for the update and rendering tasks
-            long elapsedTime = System.currentTimeMillis() - currentTime;
-
-            // sleep to maintain a consistent frame rate
-            long sleepTime = Math.max(0, targetFrameTime - elapsedTime);
-
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
         }
     }
 
     //FPS stuff
-    private int frameCount = 0;
+    private final AtomicInteger framesPainted = new AtomicInteger(); // since the last FPS sample
     private int fps;
-    private long lastFPSTime = System.currentTimeMillis();
+    private long lastFPSTime = System.nanoTime();
 
-    public ExplorerClient(int clientPort, String serverAddress, int serverPort, int startX, int startY) {
-        //Connection
-        try {
-            //Setup reply server
-            new Thread(() -> {
-                System.out.println("Listening on port: " + clientPort);
-                try {
-                    serverSocket = new ServerSocket(clientPort);
-                    replySocket = serverSocket.accept(); //Get socket for server replies
-                    in = new BufferedReader(new InputStreamReader(replySocket.getInputStream()));
-                    start();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }).start();
+    public ExplorerClient(String serverAddress, int serverPort, int startX, int startY) {
+        //Load Explorer client particle before any server reply can move it
+        explorerSprite = new Particle(startX, startY, 0, 0);
 
+        //Connection, the server replies over the same socket
+        try {
             socket = new Socket(serverAddress, serverPort);
-            out = new PrintWriter(socket.getOutputStream(), true);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
 
-            // Send a message to the server contaning explorer spawn point and port
-            out.println(clientPort + " " + startX + " " + startX);
+            // Send a message to the server contaning explorer spawn point
+            sendFrame(ExplorerProtocol.writeHello(commandWriter, startX, startY));
+
+            new Thread(this::start).start();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -210,9 +182,6 @@ public class ExplorerClient extends JFrame implements KeyListener {
         setExtendedState(java.awt.Frame.MAXIMIZED_BOTH);
         setVisible(true);
 
-        //Load Explorer client particle
-        explorerSprite = new Particle(startX, startY, 0, 0);
-
         Timer timer = new Timer(15, e -> {
             canvas.update();
         });
@@ -221,42 +190,55 @@ public class ExplorerClient extends JFrame implements KeyListener {
 
     public void start() {
         try {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                // Process the received data
-                // For example, you might receive messages indicating explorer movement or other updates
-                // Update the client's explorer sprite accordingly
-
-                //Clear loaded particles and explorers before getting new data
-                if(particles != null)
-                    particles.clear();
-                if(explorers != null)
-                    explorers.clear();
-
-                String[] temp = inputLine.split(" ");
+            ExplorerProtocol.FrameReader reader = new ExplorerProtocol.FrameReader();
+            ExplorerProtocol.StateFrame decodeFrame = new ExplorerProtocol.StateFrame();
+            DeltaCodec.Decoder deltaDecoder = new DeltaCodec.Decoder();
+            InputPredictor predictor = null;
+            long received = 0;
+            while (true) {
+                byte type = reader.read(in);
+                ByteBuffer payload = reader.payload();
 
                 //Determine message type and update accordingly
-                switch (temp[0]){
-                    case "MOVE": //Message involves explorer movement
-                        explorerSprite.x = Double.parseDouble(temp[1]);
-                        explorerSprite.y = Double.parseDouble(temp[2]);
+                switch (type){
+                    case ExplorerProtocol.MOVE: //Server position after our inputs up to a sequence
+                        if (predictor != null)
+                            predictor.reconcile(payload.getFloat(), payload.getFloat(), payload.getInt());
+                        break;
+                    case ExplorerProtocol.STATE: //Message involves state of sim
+                        ExplorerProtocol.readState(payload, decodeFrame);
+                        decodeFrame.sequence = ++received;
+                        decodeFrame = pendingFrame.getAndSet(decodeFrame);
+                        break;
+                    case ExplorerProtocol.DELTA: //Changes against a frame we acknowledged
+                        int number = deltaDecoder.decode(payload, decodeFrame);
+                        if (number < 0)
+                            break; //Base frame is gone, wait for the next keyframe
+                        sendFrame(ExplorerProtocol.writeAck(ackWriter, number));
+                        decodeFrame.sequence = ++received;
+                        decodeFrame = pendingFrame.getAndSet(decodeFrame);
+                        break;
+                    case ExplorerProtocol.WELCOME: //Server tick clock, inputs and reckoned particles run on it
+                        int tickRate = payload.getInt();
+                        reckonDecoder = new ReckonCodec.Decoder(payload.getFloat(), payload.getLong());
+                        predictor = new InputPredictor(explorerSprite, tickRate);
+                        startTicking(predictor, tickRate);
                         break;
-                    case "STATE": //Message involves state of sim
-                        for(int i = 1; i < temp.length; i += 3){
-                            //Check if data is a particle or an explorer
-                            if(temp[i].equals("P")){
-                                particles.add(new Particle(Double.parseDouble(temp[i+1]), Double.parseDouble(temp[i+2]), 0, 0));
-                            }
-                            else if(temp[i].equals("E")){
-                                explorers.add(new Particle(Double.parseDouble(temp[i+1]), Double.parseDouble(temp[i+2]), 0, 0));
-                            }
+                    case ExplorerProtocol.RECKON: //Particle states to step locally from here on
+                        if (reckonDecoder != null) {
+                            reckonDecoder.apply(payload);
+                            reckoning = true;
                         }
                         break;
                 }
             }
+        } catch (EOFException e) {
+            System.out.println("Server closed the connection.");
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            if (clientTicker != null)
+                clientTicker.shutdownNow();
             try {
                 in.close();
                 out.close();
@@ -267,44 +249,74 @@ public class ExplorerClient extends JFrame implements KeyListener {
         }
     }
 
-    // Method to send movement commands to the server
-    public void sendMovementCommand(String command) {
-        out.println(command);
+    //Runs at the server's tick rate: samples the held buttons for the predictor and, once the server
+    //streams in reckon mode, steps the reckoned particles and publishes them as the EDT's frames
+    private void startTicking(InputPredictor predictor, int tickRate) {
+        if (clientTicker != null)
+            return;
+        ExplorerProtocol.StateFrame[] tickFrame = {new ExplorerProtocol.StateFrame()};
+        long[] ticks = {0};
+        clientTicker = Executors.newSingleThreadScheduledExecutor();
+        clientTicker.scheduleAtFixedRate(() -> {
+            ByteBuffer input = predictor.tick(buttons, commandWriter);
+            if (input != null) {
+                try {
+                    sendFrame(input);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            if (reckoning) {
+                ReckonCodec.Decoder decoder = reckonDecoder;
+                decoder.step();
+                decoder.toFrame(tickFrame[0]);
+                tickFrame[0].sequence = ++ticks[0];
+                tickFrame[0] = pendingFrame.getAndSet(tickFrame[0]);
+            }
+        }, 0, 1_000_000_000L / tickRate, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void sendFrame(ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.position(), frame.remaining());
+        out.flush();
     }
 
-    @Override
-    public void keyPressed(KeyEvent e) {
-        int keyCode = e.getKeyCode();
+    //Held buttons are only recorded here, the client ticker samples them at a fixed rate
+    private static int buttonFor(int keyCode) {
         switch (keyCode) {
             case KeyEvent.VK_UP:
             case KeyEvent.VK_W:
-                sendMovementCommand("MOVE_UP");
-                break;
+                return ExplorerProtocol.BUTTON_UP;
             case KeyEvent.VK_DOWN:
             case KeyEvent.VK_S:
-                sendMovementCommand("MOVE_DOWN");
-                break;
+                return ExplorerProtocol.BUTTON_DOWN;
             case KeyEvent.VK_LEFT:
             case KeyEvent.VK_A:
-                sendMovementCommand("MOVE_LEFT");
-                break;
+                return ExplorerProtocol.BUTTON_LEFT;
             case KeyEvent.VK_RIGHT:
             case KeyEvent.VK_D:
-                sendMovementCommand("MOVE_RIGHT");
-                break;
+                return ExplorerProtocol.BUTTON_RIGHT;
         }
+        return 0;
     }
 
+    @Override
+    public void keyPressed(KeyEvent e) {
+        buttons |= buttonFor(e.getKeyCode());
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        buttons &= ~buttonFor(e.getKeyCode());
+    }
 
     public void keyTyped(KeyEvent e) {}
-    public void keyReleased(KeyEvent e) {}
 
     public static void main(String[] args) {
         Scanner s = new Scanner(System.in);
 
         //Get inputs on IP, Port, and starting coords
-        System.out.print("Enter Client Port: ");
-        int port = s.nextInt();
         System.out.print("Enter Server IP: ");
         String serverAddress = s.next(); // change to the actual server address
         System.out.print("Enter Server Port: ");
@@ -324,6 +336,6 @@ public class ExplorerClient extends JFrame implements KeyListener {
         else if(y < 0)
             y = 0;
 
-        ExplorerClient client = new ExplorerClient(port, serverAddress, serverPort, x, y);
+        ExplorerClient client = new ExplorerClient(serverAddress, serverPort, x, y);
     }
 }
\ No newline at end of file
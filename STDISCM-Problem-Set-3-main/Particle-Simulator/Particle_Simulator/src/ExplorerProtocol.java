@@ -0,0 +1,368 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+// Binary framing shared by ExplorerServer and ExplorerClient.
+//
+// Every frame is [int length][byte version][byte type][payload], where length counts the bytes
+// after the length field. Coordinates inside a STATE frame are fixed-point offsets from the
+// receiving explorer, 1/256 px per unit, which covers the periphery with room to spare.
+// Nothing here touches sockets, so the codec can be exercised and benchmarked on its own.
+public class ExplorerProtocol {
+    static final byte VERSION = 4;
+    static final int HEADER_SIZE = 4 + 1 + 1;
+    static final int STAMP_SIZE = 8 + 4;
+
+    // client -> server
+    static final byte HELLO = 1; // float x, float y
+    static final byte INPUT = 2; // int first sequence, byte count, byte buttons * count, one per client tick
+    static final byte EXIT = 3;  // no payload
+    static final byte ACK = 4;   // int frame, last DELTA frame decoded
+
+    // server -> client
+    // STATE, DELTA and RECKON payloads open with a stamp: long tickMicros, the wall-clock time
+    // (epochMicros) of the tick the frame was built from, and int sequence, counting the state
+    // frames built for this explorer. A gap in the sequence is a frame replaced before it was sent.
+    static final byte STATE = 16; // stamp, float originX, float originY, int particles, (short dx, short dy)*, int explorers, (short dx, short dy)*
+    static final byte MOVE = 17;  // float x, float y, int last INPUT sequence applied
+    static final byte DELTA = 18; // see DeltaCodec
+    static final byte RECKON = 19; // see ReckonCodec
+    static final byte WELCOME = 20; // int tickRate, float deltaTime, long tick, sent once after HELLO
+
+    // INPUT button bits, sampled once per tick while any is held
+    static final int BUTTON_UP = 1;
+    static final int BUTTON_DOWN = 2;
+    static final int BUTTON_LEFT = 4;
+    static final int BUTTON_RIGHT = 8;
+
+    // Largest frame length each side accepts. A client's frames are a few bytes; a server's grow
+    // with the crowd in the periphery, which stays far below this in any world that fits in memory.
+    static final int MAX_CLIENT_FRAME = 4096;
+    static final int MAX_SERVER_FRAME = 64 << 20;
+
+    static final double EXPLORER_SPEED = 150; // px per real second while a button is held
+
+    static final float FIXED_POINT_SCALE = 256f;
+
+    static short quantize(double delta) {
+        long q = Math.round(delta * FIXED_POINT_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    static float dequantize(short q) {
+        return q / FIXED_POINT_SCALE;
+    }
+
+    // Wall clock in microseconds since the epoch, the time base of the state stamp. Only
+    // comparable across machines as far as their clocks agree.
+    static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    // Starts a STATE, DELTA or RECKON frame with its stamp
+    static FrameWriter beginState(FrameWriter w, byte type, long tickMicros, int sequence) {
+        return w.begin(type).putLong(tickMicros).putInt(sequence);
+    }
+
+    // Stamp fields of a state payload, read without moving its position
+    static long stampMicros(ByteBuffer payload) {
+        return payload.getLong(payload.position());
+    }
+
+    static int stampSequence(ByteBuffer payload) {
+        return payload.getInt(payload.position() + 8);
+    }
+
+    static void skipStamp(ByteBuffer payload) {
+        payload.position(payload.position() + STAMP_SIZE);
+    }
+
+    // Growable buffer that builds one frame at a time and patches the length on finish
+    static class FrameWriter {
+        private ByteBuffer buffer;
+        private int frameStart;
+
+        FrameWriter() {
+            this(4096);
+        }
+
+        FrameWriter(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        FrameWriter begin(byte type) {
+            buffer.clear();
+            frameStart = 0;
+            ensure(HEADER_SIZE);
+            buffer.putInt(0).put(VERSION).put(type);
+            return this;
+        }
+
+        FrameWriter putByte(byte value) {
+            ensure(1);
+            buffer.put(value);
+            return this;
+        }
+
+        FrameWriter putShort(short value) {
+            ensure(2);
+            buffer.putShort(value);
+            return this;
+        }
+
+        FrameWriter putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        FrameWriter putLong(long value) {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        FrameWriter putFloat(float value) {
+            ensure(4);
+            buffer.putFloat(value);
+            return this;
+        }
+
+        // Unsigned LEB128, 7 bits per byte
+        FrameWriter putVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+            return this;
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        void putIntAt(int index, int value) {
+            buffer.putInt(index, value);
+        }
+
+        // Returns the finished frame ready to be written; valid until the next begin()
+        ByteBuffer finish() {
+            buffer.putInt(frameStart, buffer.position() - frameStart - 4);
+            buffer.flip();
+            return buffer;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes)
+                return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    // Reads whole frames from a stream into a reusable buffer. A length above `maxLength` is
+    // rejected before anything is allocated for it, so a peer cannot make the reader grow unbounded.
+    static class FrameReader {
+        private final int maxLength;
+        private byte[] data = new byte[4096];
+        private ByteBuffer payload = ByteBuffer.wrap(data);
+
+        // For clients reading what a server sends
+        FrameReader() {
+            this(MAX_SERVER_FRAME);
+        }
+
+        FrameReader(int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        // Blocks for the next frame and returns its type, the payload is then available from payload()
+        byte read(DataInputStream in) throws IOException {
+            int length = checkLength(in.readInt());
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
+                payload = ByteBuffer.wrap(data);
+            }
+            in.readFully(data, 0, length);
+            return open(length);
+        }
+
+        // Non-blocking variant: takes the next whole frame out of `in` (in read mode) and returns
+        // its type, or -1 when only part of it has arrived, in which case `in` is left untouched
+        byte read(ByteBuffer in) throws IOException {
+            if (in.remaining() < 4)
+                return -1;
+            int length = checkLength(in.getInt(in.position()));
+            if (in.remaining() - 4 < length)
+                return -1;
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
+                payload = ByteBuffer.wrap(data);
+            }
+            in.position(in.position() + 4);
+            in.get(data, 0, length);
+            return open(length);
+        }
+
+        private int checkLength(int length) throws IOException {
+            if (length < 2)
+                throw new IOException("Malformed frame length " + length);
+            if (length > maxLength)
+                throw new IOException("Frame too large: " + length + " bytes, at most " + maxLength);
+            return length;
+        }
+
+        private byte open(int length) throws IOException {
+            if (data[0] != VERSION)
+                throw new IOException("Unsupported protocol version " + data[0]);
+
+            payload.limit(length).position(2);
+            return data[1];
+        }
+
+        ByteBuffer payload() {
+            return payload;
+        }
+    }
+
+    static ByteBuffer writeHello(FrameWriter w, float x, float y) {
+        return w.begin(HELLO).putFloat(x).putFloat(y).finish();
+    }
+
+    static ByteBuffer writeInput(FrameWriter w, int firstSequence, byte[] buttons, int count) {
+        w.begin(INPUT).putInt(firstSequence).putByte((byte) count);
+        for (int i = 0; i < count; i++) {
+            w.putByte(buttons[i]);
+        }
+        return w.finish();
+    }
+
+    static ByteBuffer writeExit(FrameWriter w) {
+        return w.begin(EXIT).finish();
+    }
+
+    static ByteBuffer writeAck(FrameWriter w, int frame) {
+        return w.begin(ACK).putInt(frame).finish();
+    }
+
+    static ByteBuffer writeWelcome(FrameWriter w, int tickRate, float deltaTime, long tick) {
+        return w.begin(WELCOME).putInt(tickRate).putFloat(deltaTime).putLong(tick).finish();
+    }
+
+    static ByteBuffer writeMove(FrameWriter w, float x, float y, int sequence) {
+        return w.begin(MOVE).putFloat(x).putFloat(y).putInt(sequence).finish();
+    }
+
+    // Moves an explorer by one tick of held buttons. Shared by the server and the client's
+    // prediction so both land on the same position for the same inputs.
+    static void applyInput(Particle explorer, int buttons, double step) {
+        if ((buttons & BUTTON_UP) != 0)
+            explorer.y -= step;
+        if ((buttons & BUTTON_DOWN) != 0)
+            explorer.y += step;
+        if ((buttons & BUTTON_LEFT) != 0)
+            explorer.x -= step;
+        if ((buttons & BUTTON_RIGHT) != 0)
+            explorer.x += step;
+
+        //Bounds
+        explorer.x = Math.max(0, Math.min(1280, explorer.x));
+        explorer.y = Math.max(0, Math.min(720, explorer.y));
+    }
+
+    // Builds a STATE frame: begin, particles, explorers, finish, in that order
+    static class StateEncoder {
+        private final FrameWriter writer;
+        private double originX, originY;
+        private int countIndex, count;
+
+        StateEncoder(FrameWriter writer) {
+            this.writer = writer;
+        }
+
+        void begin(long tickMicros, int sequence, double originX, double originY) {
+            this.originX = originX;
+            this.originY = originY;
+            beginState(writer, STATE, tickMicros, sequence).putFloat((float) originX).putFloat((float) originY);
+            openSection();
+        }
+
+        void particle(double x, double y) {
+            point(x, y);
+        }
+
+        void beginExplorers() {
+            closeSection();
+            openSection();
+        }
+
+        void explorer(double x, double y) {
+            point(x, y);
+        }
+
+        ByteBuffer finish() {
+            closeSection();
+            return writer.finish();
+        }
+
+        private void point(double x, double y) {
+            writer.putShort(quantize(x - originX)).putShort(quantize(y - originY));
+            count++;
+        }
+
+        private void openSection() {
+            countIndex = writer.position();
+            writer.putInt(0);
+            count = 0;
+        }
+
+        private void closeSection() {
+            writer.putIntAt(countIndex, count);
+        }
+    }
+
+    // Decoded STATE frame with absolute coordinates, arrays are reused between frames
+    static class StateFrame {
+        long sequence; // assigned by the receiver in arrival order
+        float originX, originY;
+        float[] particleX = new float[256], particleY = new float[256];
+        int particleCount;
+        float[] explorerX = new float[16], explorerY = new float[16];
+        int explorerCount;
+    }
+
+    static void readState(ByteBuffer payload, StateFrame frame) {
+        skipStamp(payload);
+        frame.originX = payload.getFloat();
+        frame.originY = payload.getFloat();
+
+        int particles = payload.getInt();
+        if (frame.particleX.length < particles) {
+            frame.particleX = new float[particles];
+            frame.particleY = new float[particles];
+        }
+        readPoints(payload, frame.originX, frame.originY, frame.particleX, frame.particleY, particles);
+        frame.particleCount = particles;
+
+        int explorers = payload.getInt();
+        if (frame.explorerX.length < explorers) {
+            frame.explorerX = new float[explorers];
+            frame.explorerY = new float[explorers];
+        }
+        readPoints(payload, frame.originX, frame.originY, frame.explorerX, frame.explorerY, explorers);
+        frame.explorerCount = explorers;
+    }
+
+    private static void readPoints(ByteBuffer payload, float originX, float originY, float[] xs, float[] ys, int count) {
+        for (int i = 0; i < count; i++) {
+            xs[i] = originX + dequantize(payload.getShort());
+            ys[i] = originY + dequantize(payload.getShort());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+import java.util.List;
+
+// Accepts explorer connections and drives an ExplorerSession for each, picked by explorer.server
+public interface ExplorerServer {
+    static ExplorerServer create(SimulationEngine engine, ServerConfig config) {
+        return switch (config.serverMode) {
+            case NIO -> new SelectorExplorerServer(engine, config);
+            case VIRTUAL -> new VirtualThreadExplorerServer(engine, config);
+        };
+    }
+
+    void start(int port) throws IOException;
+
+    void stop();
+
+    // Connected explorers, safe to iterate from any thread
+    List<ExplorerSession> sessions();
+
+    // Builds the state frames; also where queue depth and dropped frame counts are read
+    BroadcastStage broadcastStage();
+
+    // Bytes, frames and send latency over every session served so far
+    SendMetrics sendMetrics();
+}
@@ -0,0 +1,392 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One connected explorer: its sprite and the encoder for its state stream. Holds no socket, the
+// server feeds it decoded client frames and sends whatever frames it hands back. Frames returned
+// by handle() and buildState() are only valid until the next call to the same method.
+public class ExplorerSession {
+    static final int PERIPHERY_WIDTH = 33;
+    static final int PERIPHERY_HEIGHT = 19;
+    static final int MAX_BACKOFF = 8; // slowest adaptive rate, as a multiple of the configured interval
+    static final int INPUT_CAPACITY = 128;   // samples buffered between ticks, more are dropped
+    static final int MAX_INPUTS_PER_TICK = 2; // lets a late batch catch up without letting a client outrun the speed
+
+    // Outbound state, a queue bounded to one frame: a frame built while the previous one is still
+    // unsent replaces it (latest frame wins), so a slow client costs one buffer, never a backlog.
+    // The MOVE acknowledging inputs sits in a slot of its own with the same policy. WELCOME, the
+    // only reply to a client frame, is returned by handle() and written by the server directly.
+    private final ReentrantLock outboxLock = new ReentrantLock();
+    private final Condition outboxFilled = outboxLock.newCondition();
+    private volatile ByteBuffer outbox;
+    private volatile ByteBuffer moveOutbox;
+    private volatile long queuedSinceNanos; // when the outbox last went from empty to holding a frame
+    private volatile long droppedFrames;
+    private final long maxLagNanos;
+    private volatile boolean evicted;
+    private volatile Runnable onEvict = () -> {};
+
+    //Metrics, written under outboxLock by whichever thread takes frames for the socket
+    private final SendMetrics sendMetrics;
+    private volatile long bytesSent, framesSent, statesSent;
+    private volatile long sendLatencyNanos, maxSendLatencyNanos; // over state frames
+
+    private final int baseInterval; // ticks between frames at the configured send rate
+    private int sendInterval;
+    private long nextFrameTick;
+
+    final int id; //To prevent sending own data
+    volatile Particle explorer; //Particle of current explorer, null until HELLO
+    private boolean closed;
+
+    private final SimulationEngine engine;
+    private final ServerConfig.StreamMode mode;
+    private final int reachX, reachY;
+
+    // INPUT samples waiting for the next tick, a ring filled by the network thread
+    private final ReentrantLock inputLock = new ReentrantLock();
+    private final int[] inputSequences = new int[INPUT_CAPACITY];
+    private final byte[] inputButtons = new byte[INPUT_CAPACITY];
+    private int inputHead, inputCount;
+    private int lastQueuedSequence;
+    private int lastAppliedSequence;
+
+    private final ExplorerProtocol.FrameWriter replyWriter = new ExplorerProtocol.FrameWriter(64);
+    private final ExplorerProtocol.FrameWriter moveWriter = new ExplorerProtocol.FrameWriter(64);
+    private final ExplorerProtocol.FrameWriter stateWriter = new ExplorerProtocol.FrameWriter();
+    private final ExplorerProtocol.StateEncoder state = new ExplorerProtocol.StateEncoder(stateWriter);
+    private int stateSequence; // state frames built so far, stamped on each
+    //Only the encoder for this mode is created, the delta history is the bulk of a session's memory
+    private final DeltaCodec.Encoder deltaEncoder;
+    private final ReckonCodec.Encoder reckonEncoder;
+
+    // `sendMetrics` collects this session's sends together with the rest of the server's
+    ExplorerSession(int id, SimulationEngine engine, ServerConfig config, SendMetrics sendMetrics) {
+        this.id = id;
+        this.engine = engine;
+        this.sendMetrics = sendMetrics;
+        this.mode = config.streamMode;
+        baseInterval = Math.max(1, Math.round((float) engine.tickRate() / config.sendRate));
+        sendInterval = baseInterval;
+        maxLagNanos = config.maxLagMillis * 1_000_000L;
+        deltaEncoder = mode == ServerConfig.StreamMode.DELTA ? new DeltaCodec.Encoder() : null;
+        reckonEncoder = mode == ServerConfig.StreamMode.RECKON ? new ReckonCodec.Encoder((float) engine.deltaTime()) : null;
+
+        //Reckoning clients keep stepping what they know, so they learn about particles a little before they come into view
+        int margin = mode == ServerConfig.StreamMode.RECKON ? ReckonCodec.INTEREST_MARGIN : 0;
+        reachX = PERIPHERY_WIDTH + margin;
+        reachY = PERIPHERY_HEIGHT + margin;
+    }
+
+    // True once the client said EXIT
+    boolean isClosed() {
+        return closed;
+    }
+
+    // Whether this explorer gets a frame built at `tick`. An unsent frame still in the outbox when
+    // the next one is due means the client or its link can't keep up, so the interval doubles;
+    // once the outbox is drained in time it creeps back one tick at a time. Stage thread only.
+    boolean due(long tick) {
+        if (evicted || tick < nextFrameTick)
+            return false;
+        boolean backlogged = outbox != null;
+        if (backlogged)
+            sendInterval = Math.min(sendInterval * 2, baseInterval * MAX_BACKOFF);
+        else if (sendInterval > baseInterval)
+            sendInterval--;
+        nextFrameTick = tick + sendInterval;
+        return true;
+    }
+
+    // Current ticks between frames, after backoff
+    int sendInterval() {
+        return sendInterval;
+    }
+
+    // Puts a copy of a frame from buildState() in the outbox. Returns false when it replaced a
+    // frame the client never got; a reckon stream then starts over from a keyframe, since the
+    // lost frame may have introduced particles the client now lacks.
+    boolean offer(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame).flip();
+
+        outboxLock.lock();
+        try {
+            boolean replaced = outbox != null;
+            //A replacement inherits the wait of the frame it replaces, the client still took nothing.
+            //Stamped before the frame is published so isLagging never pairs it with an older time
+            if (!replaced)
+                queuedSinceNanos = System.nanoTime();
+            outbox = copy;
+            outboxFilled.signal();
+            if (!replaced)
+                return true;
+        } finally {
+            outboxLock.unlock();
+        }
+        droppedFrames++;
+        if (reckonEncoder != null)
+            reckonEncoder.reset();
+        return false;
+    }
+
+    // Takes the next frame to write, a pending MOVE first, or null when there is none
+    ByteBuffer poll() {
+        outboxLock.lock();
+        try {
+            return takeFrame();
+        } finally {
+            outboxLock.unlock();
+        }
+    }
+
+    // Blocks until there is a frame to send
+    ByteBuffer take() throws InterruptedException {
+        outboxLock.lock();
+        try {
+            while (outbox == null && moveOutbox == null)
+                outboxFilled.await();
+            return takeFrame();
+        } finally {
+            outboxLock.unlock();
+        }
+    }
+
+    private ByteBuffer takeFrame() {
+        ByteBuffer move = moveOutbox;
+        if (move != null) {
+            moveOutbox = null;
+            sent(move);
+            return move;
+        }
+        ByteBuffer frame = outbox;
+        if (frame != null) {
+            outbox = null;
+            sent(frame);
+
+            //Send latency runs from the tick stamped on the frame to it being handed to the socket
+            long latency = (ExplorerProtocol.epochMicros() - frame.getLong(ExplorerProtocol.HEADER_SIZE)) * 1000;
+            latency = Math.max(0, latency);
+            statesSent++;
+            sendLatencyNanos += latency;
+            if (latency > maxSendLatencyNanos)
+                maxSendLatencyNanos = latency;
+            sendMetrics.latency.record(latency);
+        }
+        return frame;
+    }
+
+    private void sent(ByteBuffer frame) {
+        bytesSent += frame.remaining();
+        framesSent++;
+        sendMetrics.bytes.add(frame.remaining());
+        sendMetrics.frames.increment();
+    }
+
+    // Frames in the outbox, 0 or 1
+    int queuedFrames() {
+        return outbox == null ? 0 : 1;
+    }
+
+    // Frames replaced before they were sent
+    long droppedFrames() {
+        return droppedFrames;
+    }
+
+    // Bytes and frames taken for the socket, state frames and MOVEs alike
+    long bytesSent() {
+        return bytesSent;
+    }
+
+    long framesSent() {
+        return framesSent;
+    }
+
+    // State frames taken for the socket, and the sum and maximum of their send latencies
+    long statesSent() {
+        return statesSent;
+    }
+
+    long sendLatencyNanos() {
+        return sendLatencyNanos;
+    }
+
+    long maxSendLatencyNanos() {
+        return maxSendLatencyNanos;
+    }
+
+    // True when the outbox has held a frame, this one or those it replaced, for longer than
+    // explorer.maxLag. Measured from when it was filled, so an explorer that simply had nothing
+    // to receive for a while (e.g. before HELLO) is not evicted as soon as its first frame arrives.
+    boolean isLagging(long now) {
+        return outbox != null && now - queuedSinceNanos > maxLagNanos;
+    }
+
+    // Marks the session evicted and tells the server to close it; true only on the first call
+    boolean evict() {
+        if (evicted)
+            return false;
+        evicted = true;
+        onEvict.run();
+        return true;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    // Runs on the stage thread when the session is evicted; the server closes the connection
+    void onEvict(Runnable action) {
+        onEvict = action;
+    }
+
+    // Applies one client frame and returns the reply to send, or null. A payload too short for
+    // its type is an IOException, so the server drops this client rather than failing itself.
+    ByteBuffer handle(byte type, ByteBuffer payload) throws IOException {
+        if(type == ExplorerProtocol.HELLO && explorer == null){
+            require(payload, 8, "HELLO");
+            //Get starting coords of explorer and create explorer
+            explorer = new Particle(payload.getFloat(), payload.getFloat(), 0, 0);
+
+            //Tell the client the tick clock so it can step particles itself in reckon mode
+            return ExplorerProtocol.writeWelcome(replyWriter, engine.tickRate(), (float) engine.deltaTime(), engine.tickCount());
+        }
+        else if(type == ExplorerProtocol.INPUT){
+            //Queue the samples for the next tick, skipping any already seen
+            require(payload, 5, "INPUT");
+            int sequence = payload.getInt();
+            int count = payload.get() & 0xFF;
+            require(payload, count, "INPUT");
+            inputLock.lock();
+            try {
+                for (int i = 0; i < count; i++, sequence++) {
+                    byte buttons = payload.get();
+                    if (sequence <= lastQueuedSequence || inputCount == INPUT_CAPACITY)
+                        continue;
+                    int slot = (inputHead + inputCount++) % INPUT_CAPACITY;
+                    inputSequences[slot] = sequence;
+                    inputButtons[slot] = buttons;
+                    lastQueuedSequence = sequence;
+                }
+            } finally {
+                inputLock.unlock();
+            }
+        }
+        else if(type == ExplorerProtocol.ACK && deltaEncoder != null){
+            require(payload, 4, "ACK");
+            deltaEncoder.ack(payload.getInt());
+        }
+        else if(type == ExplorerProtocol.EXIT){
+            closed = true;
+        }
+        return null;
+    }
+
+    private static void require(ByteBuffer payload, int bytes, String frame) throws IOException {
+        if (payload.remaining() < bytes)
+            throw new IOException("Malformed " + frame + " frame: " + payload.remaining() + " bytes where " + bytes + " are needed");
+    }
+
+    // Applies this tick's share of queued inputs, each sample moving the explorer by one tick of
+    // held buttons, then leaves a MOVE with the last applied sequence for the client to reconcile
+    // against. Stage thread only; returns true when a MOVE was queued.
+    boolean applyInputs() {
+        Particle self = explorer;
+        if (self == null)
+            return false;
+        double step = ExplorerProtocol.EXPLORER_SPEED / engine.tickRate();
+        int applied = 0;
+        inputLock.lock();
+        try {
+            for (; applied < MAX_INPUTS_PER_TICK && inputCount > 0; applied++) {
+                ExplorerProtocol.applyInput(self, inputButtons[inputHead], step);
+                lastAppliedSequence = inputSequences[inputHead];
+                inputHead = (inputHead + 1) % INPUT_CAPACITY;
+                inputCount--;
+            }
+        } finally {
+            inputLock.unlock();
+        }
+        if (applied == 0)
+            return false;
+
+        //send coords data back to client
+        ByteBuffer move = ExplorerProtocol.writeMove(moveWriter, (float) self.x, (float) self.y, lastAppliedSequence);
+        ByteBuffer copy = ByteBuffer.allocate(move.remaining());
+        copy.put(move).flip();
+        outboxLock.lock();
+        try {
+            moveOutbox = copy;
+            outboxFilled.signal();
+        } finally {
+            outboxLock.unlock();
+        }
+        return true;
+    }
+
+    // Builds the next state frame from a snapshot the caller holds, or returns null when there
+    // is nothing to send (not spawned yet, or a reckon frame with nothing new)
+    ByteBuffer buildState(WorldSnapshot snapshot, Iterable<ExplorerSession> sessions) {
+        Particle self = explorer;
+        if(self == null)
+            return null;
+        double ex = self.x, ey = self.y;
+
+        //Delta mode collects ids into a view, reckon mode collects bare ids, full mode writes the STATE frame directly
+        DeltaCodec.View view = mode == ServerConfig.StreamMode.DELTA ? deltaEncoder.begin() : null;
+        if(mode == ServerConfig.StreamMode.FULL)
+            state.begin(snapshot.tickMicros, stateSequence + 1, ex, ey);
+        else if(mode == ServerConfig.StreamMode.RECKON)
+            reckonEncoder.begin();
+
+        //Only the grid cells around the periphery are scanned
+        snapshot.query(ex - reachX - 1, ey - reachY - 1, ex + reachX + 1, ey + reachY + 1, i -> {
+            //Check if in periphery before adding to message
+            int distanceX = (int) (snapshot.x(i) - ex);
+            int distanceY = (int) (snapshot.y(i) - ey);
+
+            if(Math.abs(distanceX) > reachX || Math.abs(distanceY) > reachY)
+                return;
+
+            if(view != null)
+                view.addParticle(i, snapshot.x(i), snapshot.y(i));
+            else if(mode == ServerConfig.StreamMode.RECKON)
+                reckonEncoder.interest(i);
+            else
+                state.particle(snapshot.x(i), snapshot.y(i));
+        });
+
+        //Add explorers
+        if(mode == ServerConfig.StreamMode.FULL)
+            state.beginExplorers();
+        for(ExplorerSession e : sessions){
+            //Check if session id is the same or not spawned yet, skip if so
+            Particle other = e.explorer;
+            if(e.id == id || other == null)
+                continue;
+            //Check if in periphery before adding to message
+            int distanceX = (int) (other.x - ex);
+            int distanceY = (int) (other.y - ey);
+
+            if(Math.abs(distanceX) > PERIPHERY_WIDTH || Math.abs(distanceY) > PERIPHERY_HEIGHT)
+                continue;
+
+            if(view != null)
+                view.addExplorer(e.id, other.x, other.y);
+            else if(mode == ServerConfig.StreamMode.RECKON)
+                reckonEncoder.explorer(e.id, other.x, other.y);
+            else
+                state.explorer(other.x, other.y);
+        }
+
+        ByteBuffer frame = switch (mode) {
+            case FULL -> state.finish();
+            case DELTA -> deltaEncoder.encode(stateWriter, snapshot.tickMicros, stateSequence + 1);
+            case RECKON -> reckonEncoder.finish(snapshot, stateWriter, stateSequence + 1);
+        };
+        if (frame != null)
+            stateSequence++;
+        return frame;
+    }
+}
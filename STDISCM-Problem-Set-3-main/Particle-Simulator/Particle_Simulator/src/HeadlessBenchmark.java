@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the simulation with no window, no renderer and no explorer server, and reports how fast it
+// ticks. Particles are spawned through the same SimulationEngine calls the developer dialogs use,
+// and engine settings come from the usual sim.* properties, so a run here matches the server.
+//
+// Run with: java -jar STDISCM-Problem-Set-3-Server.jar --headless [--ticks N] [--warmup N] [--checkpoint FILE] [spawn...]
+//       or: java -cp <classes> HeadlessBenchmark [--ticks N] [--warmup N] [--checkpoint FILE] [spawn...]
+//
+// Each spawn is a dialog with its fields separated by colons, the count first, and is passed on
+// exactly as that dialog would pass it. Missing trailing fields take the defaults below:
+//   distance:n[:startX:startY:endX:endY:angle:velocity]  default 0:0:1280:720:30:300
+//   angle:n[:x:y:velocity:startAngle:endAngle]           default 640:360:300:0:360
+//   velocity:n[:x:y:angle:startVelocity:endVelocity]     default 640:360:45:50:500
+// With no spawn given the workload is distance:100000. --checkpoint also times copying the
+// world, writing it to FILE and restoring it into a fresh engine.
+public class HeadlessBenchmark {
+    private static final double[] DISTANCE_DEFAULTS = {0, 0, 1280, 720, 30, 300};
+    private static final double[] ANGLE_DEFAULTS = {640, 360, 300, 0, 360};
+    private static final double[] VELOCITY_DEFAULTS = {640, 360, 45, 50, 500};
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        int ticks = 1000, warmup = 200;
+        Path checkpoint = null;
+        List<String> spawns = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ticks" -> ticks = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--checkpoint" -> checkpoint = Path.of(args[++i]);
+                default -> spawns.add(args[i]);
+            }
+        }
+        if (spawns.isEmpty())
+            spawns.add("distance:100000");
+
+        SimulationConfig config = SimulationConfig.fromSystemProperties();
+        SimulationEngine engine = new SimulationEngine(config);
+        for (String spawn : spawns) {
+            spawn(engine, spawn);
+        }
+
+        //The first tick applies the spawns, the rest warm up the JIT
+        engine.tick();
+        for (int i = 0; i < warmup; i++) {
+            engine.tick();
+        }
+
+        long[] times = new long[ticks];
+        long allocatedBefore = allocatedBytes();
+        long collectionsBefore = gcCount(), gcMillisBefore = gcMillis();
+        long contactsBefore = engine.collisions() != null ? engine.collisions().contacts() : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            long tickStart = System.nanoTime();
+            engine.tick();
+            times[i] = System.nanoTime() - tickStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        long contacts = engine.collisions() != null ? engine.collisions().contacts() - contactsBefore : 0;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long collections = gcCount() - collectionsBefore, gcMillis = gcMillis() - gcMillisBefore;
+
+        //Copied and written from this thread, which is the simulation thread here, then read into a new engine
+        long copyTime = 0, writeTime = 0, restoreTime = 0;
+        if (checkpoint != null) {
+            WorldCheckpoint.Snapshot snapshot = new WorldCheckpoint.Snapshot();
+            snapshot.copy(engine.tickCount(), engine.particles()); // grows the blocks, as the first checkpoint would
+            long copyStart = System.nanoTime();
+            snapshot.copy(engine.tickCount(), engine.particles());
+            long writeStart = System.nanoTime();
+            snapshot.write(checkpoint);
+            long restoreStart = System.nanoTime();
+            SimulationEngine restored = new SimulationEngine(config);
+            WorldCheckpoint.restore(checkpoint, restored);
+            restoreTime = System.nanoTime() - restoreStart;
+            writeTime = restoreStart - writeStart;
+            copyTime = writeStart - copyStart;
+            restored.stop();
+        }
+
+        //An hour of simulated time in one pass, what a stalled server pays to catch up
+        long jumpTicks = 3600L * config.tickRate, jumpTime = -1;
+        if (engine.collisions() == null) {
+            long jumpStart = System.nanoTime();
+            engine.jump(jumpTicks);
+            jumpTime = System.nanoTime() - jumpStart;
+        }
+        engine.stop();
+
+        Arrays.sort(times);
+        double seconds = elapsed / 1e9;
+        System.out.printf("particles      %d%n", engine.particles().size());
+        System.out.printf("threads        %d%n", config.threads);
+        System.out.printf("store          %s%n", engine.particles().describe());
+        System.out.printf("ticks          %d (after %d warmup)%n", ticks, warmup);
+        System.out.printf("ticks/s        %.1f%n", ticks / seconds);
+        System.out.printf("tick p50       %.3f ms%n", times[ticks / 2] / 1e6);
+        System.out.printf("tick p99       %.3f ms%n", times[Math.min(ticks - 1, (int) (ticks * 0.99))] / 1e6);
+        System.out.printf("tick max       %.3f ms%n", times[ticks - 1] / 1e6);
+        System.out.printf("allocation     %.2f MB/s (%d bytes/tick)%n", allocated / seconds / 1e6, allocated / ticks);
+        System.out.printf("gc             %d collections, %d ms%n", collections, gcMillis);
+        if (checkpoint != null)
+            System.out.printf("checkpoint     copy %.1f ms, write %.1f ms, restore %.1f ms (%d MB)%n", copyTime / 1e6,
+                    writeTime / 1e6, restoreTime / 1e6, Files.size(checkpoint) >> 20);
+        if (jumpTime >= 0)
+            System.out.printf("jump 1 h       %.3f ms (%d ticks)%n", jumpTime / 1e6, jumpTicks);
+        if (engine.collisions() != null)
+            System.out.printf("collisions     %d per tick (radius %.1f)%n", contacts / ticks, config.collisionRadius);
+    }
+
+    // Angles are negated where the dialogs negate them, screen y grows downwards
+    private static void spawn(SimulationEngine engine, String spec) {
+        String[] fields = spec.split(":");
+        int n = Integer.parseInt(fields[1]);
+        switch (fields[0]) {
+            case "distance" -> {
+                double[] v = values(fields, DISTANCE_DEFAULTS);
+                engine.addParticles(n, v[0], v[1], v[2], v[3], -v[4], v[5]);
+            }
+            case "angle" -> {
+                double[] v = values(fields, ANGLE_DEFAULTS);
+                engine.addParticlesByAngle(n, v[0], v[1], v[2], -v[3], -v[4]);
+            }
+            case "velocity" -> {
+                double[] v = values(fields, VELOCITY_DEFAULTS);
+                engine.addParticlesByVelocity(n, v[0], v[1], v[2], v[3], v[4]);
+            }
+            default -> throw new IllegalArgumentException("Unknown spawn: " + spec);
+        }
+    }
+
+    // Fields after the count, filled in from `defaults` where left out
+    private static double[] values(String[] fields, double[] defaults) {
+        double[] values = defaults.clone();
+        for (int i = 2; i < fields.length && i - 2 < values.length; i++) {
+            values[i - 2] = Double.parseDouble(fields[i]);
+        }
+        return values;
+    }
+
+    // Bytes allocated so far by live threads, which includes the engine's pool workers
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += gc.getCollectionTime();
+        return millis;
+    }
+}
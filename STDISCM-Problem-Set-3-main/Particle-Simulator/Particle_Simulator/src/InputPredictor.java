@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Client-side prediction for explorer movement. Buttons are sampled once per tick; every sample
+// that holds a button gets a sequence number, moves the local sprite straight away and is kept
+// until a MOVE from the server acknowledges it. On MOVE the sprite restarts from the server's
+// position and replays the samples the server has not applied yet, so a correction never undoes
+// input that is still in flight. Samples go out in INPUT frames of up to BATCH_TICKS.
+public class InputPredictor {
+    static final int BATCH_TICKS = 2;     // samples per INPUT frame while a button is held
+    static final int MAX_HISTORY = 256;   // unacknowledged samples kept for replay
+
+    private final Particle sprite;
+    private final Particle replay = new Particle(0, 0, 0, 0);
+    private final double step;
+
+    //Unacknowledged samples, oldest first
+    private int[] sequences = new int[64];
+    private byte[] history = new byte[64];
+    private int historyCount;
+    private int nextSequence = 1;
+
+    private final byte[] batch = new byte[BATCH_TICKS];
+    private int batchFirst, batchCount;
+
+    InputPredictor(Particle sprite, int tickRate) {
+        this.sprite = sprite;
+        step = ExplorerProtocol.EXPLORER_SPEED / tickRate;
+    }
+
+    // Samples the held buttons for one tick. Returns an INPUT frame when a batch is due, or null.
+    synchronized ByteBuffer tick(int buttons, ExplorerProtocol.FrameWriter writer) {
+        if (buttons != 0) {
+            int sequence = nextSequence++;
+            ExplorerProtocol.applyInput(sprite, buttons, step);
+            remember(sequence, (byte) buttons);
+
+            if (batchCount == 0)
+                batchFirst = sequence;
+            batch[batchCount++] = (byte) buttons;
+        }
+
+        //Send when the batch is full, or right away once the buttons are let go
+        if (batchCount == BATCH_TICKS || (batchCount > 0 && buttons == 0)) {
+            ByteBuffer frame = ExplorerProtocol.writeInput(writer, batchFirst, batch, batchCount);
+            batchCount = 0;
+            return frame;
+        }
+        return null;
+    }
+
+    // Applies a MOVE: the server's position after `sequence`, with later samples replayed on top
+    synchronized void reconcile(float x, float y, int sequence) {
+        int acknowledged = 0;
+        while (acknowledged < historyCount && sequences[acknowledged] <= sequence)
+            acknowledged++;
+        historyCount -= acknowledged;
+        System.arraycopy(sequences, acknowledged, sequences, 0, historyCount);
+        System.arraycopy(history, acknowledged, history, 0, historyCount);
+
+        //Replay off to the side so the renderer never sees the rewound position
+        replay.x = x;
+        replay.y = y;
+        for (int i = 0; i < historyCount; i++) {
+            ExplorerProtocol.applyInput(replay, history[i], step);
+        }
+        sprite.x = replay.x;
+        sprite.y = replay.y;
+    }
+
+    private void remember(int sequence, byte buttons) {
+        if (historyCount == MAX_HISTORY) {
+            //The server has gone quiet; drop the oldest, the next MOVE corrects the drift
+            historyCount--;
+            System.arraycopy(sequences, 1, sequences, 0, historyCount);
+            System.arraycopy(history, 1, history, 0, historyCount);
+        }
+        if (historyCount == sequences.length) {
+            sequences = Arrays.copyOf(sequences, historyCount * 2);
+            history = Arrays.copyOf(history, historyCount * 2);
+        }
+        sequences[historyCount] = sequence;
+        history[historyCount++] = buttons;
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts durations into fixed buckets, the same "less than or equal" buckets a Prometheus
+// histogram reports. Recording is lock-free and safe from any thread; a reader running at the
+// same time may see the sum one sample ahead of the buckets, never a lost sample.
+public class LatencyHistogram {
+    // Upper bounds in seconds, 50 us to 5 s; anything slower lands in the last, unbounded bucket
+    static final double[] BOUNDS = {0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+            0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+    private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++)
+            BOUND_NANOS[i] = Math.round(BOUNDS[i] * 1e9);
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        int bucket = 0;
+        while (bucket < BOUND_NANOS.length && nanos > BOUND_NANOS[bucket])
+            bucket++;
+        buckets.incrementAndGet(bucket);
+        sumNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Samples at or below BOUNDS[bucket]; bucket BOUNDS.length counts everything
+    long cumulative(int bucket) {
+        long total = 0;
+        for (int i = 0; i <= bucket; i++)
+            total += buckets.get(i);
+        return total;
+    }
+
+    long count() {
+        return cumulative(BOUNDS.length);
+    }
+
+    long sumNanos() {
+        return sumNanos.get();
+    }
+
+    long maxNanos() {
+        return maxNanos.get();
+    }
+
+    double meanMillis() {
+        long count = count();
+        return count == 0 ? 0 : sumNanos.get() / 1e6 / count;
+    }
+
+    // Upper bound of the bucket holding quantile q, or the largest sample when that is the last bucket
+    double quantileMillis(double q) {
+        long count = count();
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return BOUNDS[i] * 1000;
+        }
+        return maxNanos.get() / 1e6;
+    }
+}
@@ -0,0 +1,17 @@
+// Settings for the metrics endpoint, read from system properties like SimulationConfig,
+// e.g. java -Dmetrics.port=9400 -jar STDISCM-Problem-Set-3-Server.jar
+public class MetricsConfig {
+    final String host; // address the endpoint listens on, loopback unless opened up on purpose
+    final int port;    // 0 leaves the endpoint off; the MXBeans are registered either way
+
+    MetricsConfig(String host, int port) {
+        this.host = host;
+        this.port = Math.max(0, port);
+    }
+
+    static MetricsConfig fromSystemProperties() {
+        return new MetricsConfig(
+                System.getProperty("metrics.host", "127.0.0.1"),
+                Integer.getInteger("metrics.port", 9400));
+    }
+}
@@ -0,0 +1,53 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves ServerMetrics as Prometheus text at http://<metrics.host>:<metrics.port>/metrics, on the
+// JDK's built-in HTTP server. Scrapes are answered one at a time on its dispatcher thread, each
+// a single pass over the sessions, so a scraper cannot load the server more than it asks for.
+public class MetricsEndpoint {
+    static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerMetrics metrics;
+    private final HttpServer http;
+
+    MetricsEndpoint(ServerMetrics metrics, MetricsConfig config) throws IOException {
+        this.metrics = metrics;
+        http = HttpServer.create(new InetSocketAddress(config.host, config.port), 0);
+        http.createContext(PATH, this::handle);
+    }
+
+    void start() {
+        http.start();
+    }
+
+    void stop() {
+        http.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+// ParticleStore's layout in direct buffers outside the Java heap (sim.offHeap=true). At tens of
+// millions of particles the double coordinates are the largest single block of the server's
+// memory; kept here the collector never marks, copies or makes room for them, and growing the set
+// copies native memory instead of allocating humongous arrays. Only the store moves: the
+// published WorldSnapshots stay float arrays on the heap, about 24 bytes per particle each, so
+// the heap still grows with the particle count, just more slowly. Direct memory is capped by -XX:MaxDirectMemorySize, which
+// defaults to the heap limit, so raise it when keeping the heap small: 32 bytes per particle,
+// twice that briefly while growing, e.g. -Xmx3g -XX:MaxDirectMemorySize=4g for 50M.
+//
+// Stepping and snapshot copies load a block at a time into scratch arrays with bulk copies,
+// which beat per-element buffer reads, and stepping runs the selected StepKernel on the block,
+// so the vector kernel serves this store too and the physics stays in one place.
+public class OffHeapParticleStore implements ParticleSet {
+    private static final int BLOCK = 1024; // particles per kernel call, 32 KB of scratch
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / Double.BYTES; // one buffer per coordinate
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    //Each stepping thread keeps its own x, y, vx and vy block
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[4][BLOCK]);
+
+    private DoubleBuffer x, y;   // position
+    private DoubleBuffer vx, vy; // velocity components in pixels per second
+    private int size;
+    private final StepKernel kernel;
+
+    OffHeapParticleStore(int capacity, StepKernel kernel) {
+        this.kernel = kernel;
+        capacity = Math.max(capacity, 1);
+        x = allocate(capacity);
+        y = allocate(capacity);
+        vx = allocate(capacity);
+        vy = allocate(capacity);
+    }
+
+    private static DoubleBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        return x.capacity();
+    }
+
+    @Override
+    public int maxCapacity() {
+        return MAX_CAPACITY;
+    }
+
+    @Override
+    public int addCartesian(double x, double y, double vx, double vy) {
+        ensureCapacity(size + 1);
+        this.x.put(size, x);
+        this.y.put(size, y);
+        this.vx.put(size, vx);
+        this.vy.put(size, vy);
+        return size++;
+    }
+
+    @Override
+    public void ensureCapacity(int required) {
+        if (required <= x.capacity())
+            return;
+        if (required > MAX_CAPACITY)
+            throw new IllegalStateException("Off-heap store holds at most " + MAX_CAPACITY + " particles");
+
+        //Grow by half like ParticleStore; the old buffers are freed once collected
+        int newCapacity = (int) Math.min(MAX_CAPACITY, Math.max(required, x.capacity() + (long) (x.capacity() >> 1)));
+        x = grow(x, newCapacity);
+        y = grow(y, newCapacity);
+        vx = grow(vx, newCapacity);
+        vy = grow(vy, newCapacity);
+    }
+
+    private DoubleBuffer grow(DoubleBuffer old, int capacity) {
+        DoubleBuffer grown = allocate(capacity);
+        grown.put(0, old, 0, size);
+        return grown;
+    }
+
+    @Override
+    public double x(int i) {
+        return x.get(i);
+    }
+
+    @Override
+    public double y(int i) {
+        return y.get(i);
+    }
+
+    @Override
+    public double vx(int i) {
+        return vx.get(i);
+    }
+
+    @Override
+    public double vy(int i) {
+        return vy.get(i);
+    }
+
+    @Override
+    public void copyTo(WorldSnapshot snapshot, int from, int to) {
+        double[][] block = SCRATCH.get();
+        for (int start = from; start < to; start += BLOCK) {
+            int n = Math.min(BLOCK, to - start);
+            load(block, start, n);
+            copyBlock(block, snapshot, start, n);
+        }
+    }
+
+    // Steps a block and copies it into the snapshot before storing it back, one load for both
+    @Override
+    public void stepInto(WorldSnapshot snapshot, int from, int to, double deltaTime) {
+        double[][] block = SCRATCH.get();
+        for (int start = from; start < to; start += BLOCK) {
+            int n = Math.min(BLOCK, to - start);
+            load(block, start, n);
+            kernel.step(block[0], block[1], block[2], block[3], 0, n, deltaTime);
+            copyBlock(block, snapshot, start, n);
+            store(block, start, n);
+        }
+    }
+
+    private static void copyBlock(double[][] block, WorldSnapshot snapshot, int start, int n) {
+        float[] sx = snapshot.x, sy = snapshot.y, svx = snapshot.vx, svy = snapshot.vy;
+        int[] cell = snapshot.cell;
+        double[] bx = block[0], by = block[1], bvx = block[2], bvy = block[3];
+        for (int k = 0, i = start; k < n; k++, i++) {
+            sx[i] = (float) bx[k];
+            sy[i] = (float) by[k];
+            svx[i] = (float) bvx[k];
+            svy[i] = (float) bvy[k];
+            cell[i] = SpatialGrid.cellOf(bx[k], by[k]);
+        }
+    }
+
+    @Override
+    public void save(int from, int to, DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy) {
+        x.put(0, this.x, from, to - from);
+        y.put(0, this.y, from, to - from);
+        vx.put(0, this.vx, from, to - from);
+        vy.put(0, this.vy, from, to - from);
+    }
+
+    @Override
+    public void addAll(DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy, int count) {
+        ensureCapacity(size + count);
+        this.x.put(size, x, 0, count);
+        this.y.put(size, y, 0, count);
+        this.vx.put(size, vx, 0, count);
+        this.vy.put(size, vy, 0, count);
+        size += count;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public void step(int from, int to, double deltaTime) {
+        double[][] block = SCRATCH.get();
+        for (int start = from; start < to; start += BLOCK) {
+            int n = Math.min(BLOCK, to - start);
+            load(block, start, n);
+            kernel.step(block[0], block[1], block[2], block[3], 0, n, deltaTime);
+            store(block, start, n);
+        }
+    }
+
+    // Bulk copies particles [start, start + n) into a scratch block, a memcpy per coordinate
+    private void load(double[][] block, int start, int n) {
+        x.get(start, block[0], 0, n);
+        y.get(start, block[1], 0, n);
+        vx.get(start, block[2], 0, n);
+        vy.get(start, block[3], 0, n);
+    }
+
+    private void store(double[][] block, int start, int n) {
+        x.put(start, block[0], 0, n);
+        y.put(start, block[1], 0, n);
+        vx.put(start, block[2], 0, n);
+        vy.put(start, block[3], 0, n);
+    }
+
+    @Override
+    public void advance(int from, int to, double time) {
+        DoubleBuffer x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+        for (int i = from; i < to; i++) {
+            double unfoldedX = x.get(i) + vx.get(i) * time, unfoldedY = y.get(i) + vy.get(i) * time;
+            x.put(i, Particle.fold(unfoldedX, WIDTH));
+            y.put(i, Particle.fold(unfoldedY, HEIGHT));
+            if (Particle.mirrored(unfoldedX, WIDTH))
+                vx.put(i, -vx.get(i));
+            if (Particle.mirrored(unfoldedY, HEIGHT))
+                vy.put(i, -vy.get(i));
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "off-heap, " + kernel.name() + " kernel";
+    }
+}
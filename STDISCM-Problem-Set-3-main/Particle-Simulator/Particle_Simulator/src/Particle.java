@@ -1,31 +1,84 @@
 public class Particle {
     double x, y; // position
-    double angle; // angle in degrees
-    double velocity; // velocity in pixels per second
+    double vx, vy; // velocity components in pixels per second
 
-    private final int WIDTH = 1280;
-    private final int HEIGHT = 720;
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
 
     Particle(double x, double y, double angle, double velocity) {
         this.x = x;
         this.y = y;
-        this.angle = angle;
-        this.velocity = velocity;
+
+        // resolve the heading once, bounces only flip signs afterwards
+        double radians = Math.toRadians(angle);
+        this.vx = velocity * Math.cos(radians);
+        this.vy = velocity * Math.sin(radians);
+    }
+
+    // angle in degrees, derived from the velocity components
+    double angle() {
+        return Math.toDegrees(Math.atan2(vy, vx));
+    }
+
+    // speed in pixels per second
+    double velocity() {
+        return Math.hypot(vx, vy);
     }
 
     void move(double deltaTime) {
         // update particle position
-        double newX = x + velocity * Math.cos(Math.toRadians(angle)) * deltaTime;
-        double newY = y + velocity * Math.sin(Math.toRadians(angle)) * deltaTime;
-        x = newX;
-        y = newY;
-
-        // check collision on borders
-        if (newX < 0 || newX > WIDTH) {
-            angle = 180 - angle;
+        x += vx * deltaTime;
+        y += vy * deltaTime;
+
+        // check collision on borders, reflecting the overshoot back inside
+        if (x < 0) {
+            x = -x;
+            vx = -vx;
+        } else if (x > WIDTH) {
+            x = 2 * WIDTH - x;
+            vx = -vx;
         }
-        if (newY < 0 || newY > HEIGHT) {
-            angle = -angle;
+        if (y < 0) {
+            y = -y;
+            vy = -vy;
+        } else if (y > HEIGHT) {
+            y = 2 * HEIGHT - y;
+            vy = -vy;
         }
+
+        // a step longer than the box can still overshoot after reflecting
+        x = clamp(x, WIDTH);
+        y = clamp(y, HEIGHT);
+    }
+
+    // Moves the particle `time` seconds ahead in one go. Mirroring the box at every wall turns the
+    // bouncing path into a straight line, so the end point of that line folded back into the box
+    // is the position; O(1) for any time, and the same as stepping tick by tick up to rounding.
+    void advance(double time) {
+        double unfoldedX = x + vx * time, unfoldedY = y + vy * time;
+        x = fold(unfoldedX, WIDTH);
+        y = fold(unfoldedY, HEIGHT);
+        if (mirrored(unfoldedX, WIDTH))
+            vx = -vx;
+        if (mirrored(unfoldedY, HEIGHT))
+            vy = -vy;
+    }
+
+    // Folds a coordinate on the unbounded straight line back into [0, size]
+    static double fold(double unfolded, double size) {
+        double period = 2 * size;
+        double phase = unfolded - period * Math.floor(unfolded / period);
+        return phase <= size ? phase : period - phase;
+    }
+
+    // Whether a coordinate on the unbounded line lies in a mirrored copy of the box, meaning the
+    // velocity along it has been flipped by an odd number of bounces
+    static boolean mirrored(double unfolded, double size) {
+        double period = 2 * size;
+        return unfolded - period * Math.floor(unfolded / period) > size;
+    }
+
+    static double clamp(double value, double max) {
+        return value < 0 ? 0 : (value > max ? max : value);
     }
 }
@@ -0,0 +1,65 @@
+import java.nio.DoubleBuffer;
+
+// The particles the engine steps, in ParticleStore's arrays on the Java heap or in
+// OffHeapParticleStore's direct buffers (sim.offHeap). Only the simulation thread and its
+// step tasks touch it; everyone else reads the published WorldSnapshot.
+public interface ParticleSet {
+    int size();
+
+    int capacity();
+
+    // Most particles this kind of store can ever hold
+    int maxCapacity();
+
+    // Room for at least `required` particles, so a bulk spawn grows the storage once
+    void ensureCapacity(int required);
+
+    // Adds a particle using the same angle (degrees) and velocity inputs as Particle
+    default int add(double x, double y, double angle, double velocity) {
+        double radians = Math.toRadians(angle);
+        return addCartesian(x, y, velocity * Math.cos(radians), velocity * Math.sin(radians));
+    }
+
+    int addCartesian(double x, double y, double vx, double vy);
+
+    void clear();
+
+    double x(int i);
+
+    double y(int i);
+
+    double vx(int i);
+
+    double vy(int i);
+
+    // Steps every particle, no allocation
+    default void step(double deltaTime) {
+        step(0, size(), deltaTime);
+    }
+
+    // Steps particles in [from, to) one tick, reflecting off the walls like Particle.move
+    void step(int from, int to, double deltaTime);
+
+    // Moves particles in [from, to) `time` seconds ahead in closed form, see Particle.advance
+    void advance(int from, int to, double time);
+
+    // Copies [from, to) into a snapshot that has been prepared for at least `to` particles,
+    // along with each particle's grid cell so the index build needs no extra pass
+    void copyTo(WorldSnapshot snapshot, int from, int to);
+
+    // step followed by copyTo, for stores that can copy a slice while it is still in cache
+    default void stepInto(WorldSnapshot snapshot, int from, int to, double deltaTime) {
+        step(from, to, deltaTime);
+        copyTo(snapshot, from, to);
+    }
+
+    // Bulk copies particles [from, to) into the given buffers from their index 0, one per coordinate;
+    // how WorldCheckpoint saves the world without a per-particle loop
+    void save(int from, int to, DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy);
+
+    // Appends the first `count` particles of each buffer, the inverse of save
+    void addAll(DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy, int count);
+
+    // Where the particles live and how they are stepped, for reports
+    String describe();
+}
@@ -2,6 +2,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
 
 class ParticleSimulator extends JFrame implements KeyListener {
     private Canvas canvas;
@@ -93,7 +94,12 @@ class ParticleSimulator extends JFrame implements KeyListener {
         return canvas;
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        //No window, no server: just tick the simulation and report timings
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessBenchmark.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(() -> new ParticleSimulator());
     }
 }
@@ -0,0 +1,157 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+// Structure-of-arrays particle storage. Every particle is an index into parallel primitive
+// arrays, so stepping and rendering walk contiguous memory instead of chasing object pointers.
+public class ParticleStore implements ParticleSet {
+    static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8; // largest array the VM allocates
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    double[] x, y;   // position
+    double[] vx, vy; // velocity components in pixels per second
+    private int size;
+    private final StepKernel kernel;
+
+    ParticleStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    ParticleStore(int capacity) {
+        this(capacity, StepKernel.SCALAR);
+    }
+
+    ParticleStore(int capacity, StepKernel kernel) {
+        this.kernel = kernel;
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        return x.length;
+    }
+
+    @Override
+    public int maxCapacity() {
+        return MAX_CAPACITY;
+    }
+
+    @Override
+    public int addCartesian(double x, double y, double vx, double vy) {
+        ensureCapacity(size + 1);
+        this.x[size] = x;
+        this.y[size] = y;
+        this.vx[size] = vx;
+        this.vy[size] = vy;
+        return size++;
+    }
+
+    @Override
+    public void ensureCapacity(int required) {
+        if (required <= x.length)
+            return;
+
+        //Grow by half so bulk adds stay amortized O(1)
+        int newCapacity = Math.max(required, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        vx = Arrays.copyOf(vx, newCapacity);
+        vy = Arrays.copyOf(vy, newCapacity);
+    }
+
+    @Override
+    public double x(int i) {
+        return x[i];
+    }
+
+    @Override
+    public double y(int i) {
+        return y[i];
+    }
+
+    @Override
+    public double vx(int i) {
+        return vx[i];
+    }
+
+    @Override
+    public double vy(int i) {
+        return vy[i];
+    }
+
+    @Override
+    public void copyTo(WorldSnapshot snapshot, int from, int to) {
+        float[] sx = snapshot.x, sy = snapshot.y, svx = snapshot.vx, svy = snapshot.vy;
+        int[] cell = snapshot.cell;
+        for (int i = from; i < to; i++) {
+            sx[i] = (float) x[i];
+            sy[i] = (float) y[i];
+            svx[i] = (float) vx[i];
+            svy[i] = (float) vy[i];
+            cell[i] = SpatialGrid.cellOf(x[i], y[i]);
+        }
+    }
+
+    @Override
+    public void save(int from, int to, DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy) {
+        x.put(0, this.x, from, to - from);
+        y.put(0, this.y, from, to - from);
+        vx.put(0, this.vx, from, to - from);
+        vy.put(0, this.vy, from, to - from);
+    }
+
+    @Override
+    public void addAll(DoubleBuffer x, DoubleBuffer y, DoubleBuffer vx, DoubleBuffer vy, int count) {
+        ensureCapacity(size + count);
+        x.get(0, this.x, size, count);
+        y.get(0, this.y, size, count);
+        vx.get(0, this.vx, size, count);
+        vy.get(0, this.vy, size, count);
+        size += count;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    // Steps particles in [from, to) with the store's kernel
+    @Override
+    public void step(int from, int to, double deltaTime) {
+        kernel.step(x, y, vx, vy, from, to, deltaTime);
+    }
+
+    StepKernel kernel() {
+        return kernel;
+    }
+
+    @Override
+    public String describe() {
+        return "heap, " + kernel.name() + " kernel";
+    }
+
+    @Override
+    public void advance(int from, int to, double time) {
+        double[] x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+        for (int i = from; i < to; i++) {
+            double unfoldedX = x[i] + vx[i] * time, unfoldedY = y[i] + vy[i] * time;
+            x[i] = Particle.fold(unfoldedX, WIDTH);
+            y[i] = Particle.fold(unfoldedY, HEIGHT);
+            if (Particle.mirrored(unfoldedX, WIDTH))
+                vx[i] = -vx[i];
+            if (Particle.mirrored(unfoldedY, HEIGHT))
+                vy[i] = -vy[i];
+        }
+    }
+}
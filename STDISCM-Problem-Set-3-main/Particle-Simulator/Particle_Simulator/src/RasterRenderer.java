@@ -0,0 +1,79 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// A back buffer that lives as long as the panel. Particles are stamped straight into its int[]
+// raster from a precomputed disc, so a frame costs no allocation and no per-particle Graphics
+// call; the few sprites left still go through a Graphics2D created once for the image.
+public class RasterRenderer {
+    private final int width, height;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final Graphics2D graphics;
+
+    //Disc stamp, one horizontal span per row relative to the disc's top-left corner
+    private final int diameter;
+    private final int[] spanStart, spanEnd;
+
+    RasterRenderer(int width, int height, int diameter) {
+        this.width = width;
+        this.height = height;
+        this.diameter = diameter;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        graphics = image.createGraphics();
+
+        //Rasterize fillOval once so the stamp covers exactly the pixels it always did
+        BufferedImage stamp = new BufferedImage(diameter, diameter, BufferedImage.TYPE_INT_RGB);
+        Graphics2D stampGraphics = stamp.createGraphics();
+        stampGraphics.setColor(Color.WHITE);
+        stampGraphics.fillOval(0, 0, diameter, diameter);
+        stampGraphics.dispose();
+        spanStart = new int[diameter];
+        spanEnd = new int[diameter];
+        for (int row = 0; row < diameter; row++) {
+            int from = 0, to = diameter;
+            while (from < diameter && (stamp.getRGB(from, row) & 0xFFFFFF) == 0)
+                from++;
+            while (to > from && (stamp.getRGB(to - 1, row) & 0xFFFFFF) == 0)
+                to--;
+            spanStart[row] = from;
+            spanEnd[row] = to;
+        }
+    }
+
+    BufferedImage image() {
+        return image;
+    }
+
+    // For sprites and text, drawn over the raster
+    Graphics2D graphics() {
+        return graphics;
+    }
+
+    int[] pixels() {
+        return pixels;
+    }
+
+    void clear(Color color) {
+        Arrays.fill(pixels, color.getRGB() & 0xFFFFFF);
+    }
+
+    // Stamps a disc with its top-left corner at (x, y), clipped to the image
+    void disc(int x, int y, int rgb) {
+        if (x >= width || y >= height || x + diameter <= 0 || y + diameter <= 0)
+            return;
+        for (int row = 0; row < diameter; row++) {
+            int py = y + row;
+            if (py < 0 || py >= height)
+                continue;
+            int from = Math.max(0, x + spanStart[row]);
+            int to = Math.min(width, x + spanEnd[row]);
+            int offset = py * width;
+            for (int px = from; px < to; px++) {
+                pixels[offset + px] = rgb;
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Dead-reckoning stream: the server sends each particle's state once when it enters an
+// explorer's interest area, and the client steps it locally with Particle physics at the tick
+// rate announced in WELCOME. After that the server only sends interest changes, a correction
+// when a particle is no longer where the client puts it (with sim.collisions, after a
+// collision), and a periodic correction to cancel float drift.
+//
+// RECKON payload: stamp (see ExplorerProtocol), long tick, byte keyframe, int record count, records sorted by id, explorer
+// section. A keyframe tells the client to forget everything it holds before applying the records.
+// Each record starts with varint((idGap << 2) | kind); ENTER and CORRECT add float x, y, vx, vy
+// as of `tick`. The explorer section is a byte flag, and when set an int count followed by
+// (int id, float x, float y) for every explorer in view; it is only sent when that list changed.
+public class ReckonCodec {
+    static final int ENTER = 0;
+    static final int LEAVE = 1;
+    static final int CORRECT = 2;
+
+    static final int CORRECTION_INTERVAL = 120; // ticks between unconditional corrections
+    static final int HEARTBEAT_INTERVAL = 60;   // ticks without news before an empty frame is sent
+    static final int INTEREST_MARGIN = 8;       // px tracked beyond the periphery so particles don't pop in
+    static final double CORRECTION_DISTANCE = 0.01; // px a client's copy may be off, under one screen pixel at the explorer's zoom
+
+    // Server side, one per explorer, used from the sending thread only
+    static class Encoder {
+        private static final int WIDTH = 1280;
+        private static final int HEIGHT = 720;
+
+        private final double deltaTime; // rounded to float like the one clients get in WELCOME
+
+        // Particles the client currently simulates, sorted by id, with the state last sent, and the next frame's copy
+        private int[] knownIds = new int[256], nextIds = new int[256];
+        private float[] knownX = new float[256], nextX = new float[256];
+        private float[] knownY = new float[256], nextY = new float[256];
+        private float[] knownVx = new float[256], nextVx = new float[256];
+        private float[] knownVy = new float[256], nextVy = new float[256];
+        private long[] knownTick = new long[256], nextTick = new long[256];
+        private int knownCount;
+
+        // Interest set being collected for this frame
+        private int[] interest = new int[256];
+        private int interestCount;
+
+        private final DeltaCodec.Section explorers = new DeltaCodec.Section(16);
+        private long[] sentExplorers = new long[16];
+        private int sentExplorerCount = -1;
+
+        private long lastFrameTick = Long.MIN_VALUE / 2;
+        private boolean keyframe = true;
+
+        Encoder(double deltaTime) {
+            this.deltaTime = deltaTime;
+        }
+
+        void begin() {
+            interestCount = 0;
+            explorers.count = 0;
+        }
+
+        void interest(int id) {
+            if (interestCount == interest.length)
+                interest = Arrays.copyOf(interest, interestCount * 2);
+            interest[interestCount++] = id;
+        }
+
+        void explorer(int id, double x, double y) {
+            explorers.add(id, x, y);
+        }
+
+        // Forgets what the client knows so the next frame is a keyframe that resends everything
+        void reset() {
+            knownCount = 0;
+            sentExplorerCount = -1;
+            keyframe = true;
+        }
+
+        // Returns the frame to send, or null when the client has nothing new to learn.
+        // The snapshot must be the one the interest set was collected from.
+        ByteBuffer finish(WorldSnapshot snapshot, ExplorerProtocol.FrameWriter writer, int sequence) {
+            long tick = snapshot.tick;
+            Arrays.sort(interest, 0, interestCount);
+            Arrays.sort(explorers.entries, 0, explorers.count);
+
+            ExplorerProtocol.beginState(writer, ExplorerProtocol.RECKON, snapshot.tickMicros, sequence).putLong(tick).putByte((byte) (keyframe ? 1 : 0));
+            int countIndex = writer.position();
+            writer.putInt(0);
+            int records = writeRecords(snapshot, tick, writer);
+            writer.putIntAt(countIndex, records);
+
+            boolean explorersChanged = explorers.count != sentExplorerCount
+                    || !Arrays.equals(explorers.entries, 0, explorers.count, sentExplorers, 0, sentExplorerCount);
+            writer.putByte((byte) (explorersChanged ? 1 : 0));
+            if (explorersChanged) {
+                writer.putInt(explorers.count);
+                for (int i = 0; i < explorers.count; i++) {
+                    long e = explorers.entries[i];
+                    writer.putInt(DeltaCodec.id(e))
+                            .putFloat(DeltaCodec.qx(e) / DeltaCodec.POSITION_SCALE)
+                            .putFloat(DeltaCodec.qy(e) / DeltaCodec.POSITION_SCALE);
+                }
+                if (sentExplorers.length < explorers.count)
+                    sentExplorers = new long[explorers.entries.length];
+                System.arraycopy(explorers.entries, 0, sentExplorers, 0, explorers.count);
+                sentExplorerCount = explorers.count;
+            }
+
+            if (records == 0 && !explorersChanged && !keyframe && tick - lastFrameTick < HEARTBEAT_INTERVAL)
+                return null;
+
+            lastFrameTick = tick;
+            keyframe = false;
+            return writer.finish();
+        }
+
+        // Merges the known set with this frame's interest set, writing records and building the
+        // set the client will hold after applying them
+        private int writeRecords(WorldSnapshot snapshot, long tick, ExplorerProtocol.FrameWriter writer) {
+            ensureNext(knownCount + interestCount);
+
+            int records = 0, previousId = 0, n = 0;
+            int i = 0, j = 0;
+            while (i < knownCount || j < interestCount) {
+                int knownId = i < knownCount ? knownIds[i] : Integer.MAX_VALUE;
+                int interestId = j < interestCount ? interest[j] : Integer.MAX_VALUE;
+
+                if (interestId < knownId) {
+                    writeState(writer, snapshot, ENTER, interestId - previousId, interestId);
+                    remember(n++, snapshot, interestId, tick);
+                    previousId = interestId;
+                    records++;
+                    j++;
+                } else if (knownId < interestId) {
+                    writer.putVarInt((knownId - previousId) << 2 | LEAVE);
+                    previousId = knownId;
+                    records++;
+                    i++;
+                } else {
+                    if (offCourse(snapshot, knownId, i, tick) || tick - knownTick[i] >= CORRECTION_INTERVAL) {
+                        writeState(writer, snapshot, CORRECT, knownId - previousId, knownId);
+                        remember(n++, snapshot, knownId, tick);
+                        previousId = knownId;
+                        records++;
+                    } else {
+                        nextIds[n] = knownId;
+                        nextX[n] = knownX[i];
+                        nextY[n] = knownY[i];
+                        nextVx[n] = knownVx[i];
+                        nextVy[n] = knownVy[i];
+                        nextTick[n] = knownTick[i];
+                        n++;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+
+            int[] ids = knownIds; knownIds = nextIds; nextIds = ids;
+            float[] xs = knownX; knownX = nextX; nextX = xs;
+            float[] ys = knownY; knownY = nextY; nextY = ys;
+            float[] vxs = knownVx; knownVx = nextVx; nextVx = vxs;
+            float[] vys = knownVy; knownVy = nextVy; nextVy = vys;
+            long[] ticks = knownTick; knownTick = nextTick; nextTick = ticks;
+            knownCount = n;
+            return records;
+        }
+
+        // Whether the client's copy of known particle i has left the server's. The client steps it
+        // in a straight line between the walls, which has a closed form (see Particle.advance), so
+        // wall bounces need no correction; a collision turns it or pushes it aside, and then does.
+        private boolean offCourse(WorldSnapshot snapshot, int id, int i, long tick) {
+            double time = (tick - knownTick[i]) * deltaTime;
+            double unfoldedX = knownX[i] + knownVx[i] * time, unfoldedY = knownY[i] + knownVy[i] * time;
+            float vx = Particle.mirrored(unfoldedX, WIDTH) ? -knownVx[i] : knownVx[i];
+            float vy = Particle.mirrored(unfoldedY, HEIGHT) ? -knownVy[i] : knownVy[i];
+            return snapshot.vx(id) != vx || snapshot.vy(id) != vy
+                    || Math.abs(snapshot.x(id) - Particle.fold(unfoldedX, WIDTH)) > CORRECTION_DISTANCE
+                    || Math.abs(snapshot.y(id) - Particle.fold(unfoldedY, HEIGHT)) > CORRECTION_DISTANCE;
+        }
+
+        private static void writeState(ExplorerProtocol.FrameWriter writer, WorldSnapshot snapshot, int kind, int idGap, int id) {
+            writer.putVarInt(idGap << 2 | kind)
+                    .putFloat(snapshot.x(id)).putFloat(snapshot.y(id))
+                    .putFloat(snapshot.vx(id)).putFloat(snapshot.vy(id));
+        }
+
+        private void remember(int index, WorldSnapshot snapshot, int id, long tick) {
+            nextIds[index] = id;
+            nextX[index] = snapshot.x(id);
+            nextY[index] = snapshot.y(id);
+            nextVx[index] = snapshot.vx(id);
+            nextVy[index] = snapshot.vy(id);
+            nextTick[index] = tick;
+        }
+
+        private void ensureNext(int capacity) {
+            if (nextIds.length >= capacity)
+                return;
+            int newCapacity = Math.max(capacity, nextIds.length * 2);
+            nextIds = new int[newCapacity];
+            nextX = new float[newCapacity];
+            nextY = new float[newCapacity];
+            nextVx = new float[newCapacity];
+            nextVy = new float[newCapacity];
+            nextTick = new long[newCapacity];
+        }
+    }
+
+    // Client side: the locally simulated particles, kept like the encoder's known set in arrays
+    // sorted by id so a frame's records merge in one pass. apply() runs on the network thread,
+    // step() and toFrame() on the client's tick thread.
+    static class Decoder {
+        private static final int WIDTH = 1280;
+        private static final int HEIGHT = 720;
+
+        private final double deltaTime;
+        private int[] ids = new int[256], nextIds = new int[256];
+        private double[] x = new double[256], nextX = new double[256];
+        private double[] y = new double[256], nextY = new double[256];
+        private double[] vx = new double[256], nextVx = new double[256];
+        private double[] vy = new double[256], nextVy = new double[256];
+        private int count;
+        private float[] explorerX = new float[16], explorerY = new float[16];
+        private int explorerCount;
+        private long tick;
+
+        Decoder(double deltaTime, long tick) {
+            this.deltaTime = deltaTime;
+            this.tick = tick;
+        }
+
+        synchronized long tick() {
+            return tick;
+        }
+
+        // Advances every particle one tick with the same physics as the server
+        synchronized void step() {
+            StepKernel.SCALAR.step(x, y, vx, vy, 0, count, deltaTime);
+            tick++;
+        }
+
+        synchronized void apply(ByteBuffer payload) {
+            ExplorerProtocol.skipStamp(payload);
+            long frameTick = payload.getLong();
+
+            //Behind the server: jump straight to its tick, however far, see Particle.advance
+            long behind = frameTick - tick;
+            if (behind > 0) {
+                for (int i = 0; i < count; i++) {
+                    advance(x, y, vx, vy, i, behind * deltaTime);
+                }
+                tick = frameTick;
+            }
+            long ahead = tick - frameTick;
+
+            if (payload.get() != 0) {
+                count = 0;
+                explorerCount = 0;
+            }
+
+            int records = payload.getInt();
+            ensureNext(count + records);
+            int id = 0, i = 0, n = 0;
+            for (int r = 0; r < records; r++) {
+                int header = DeltaCodec.getVarInt(payload);
+                id += header >>> 2;
+
+                //Particles up to this record are unchanged, and the record replaces or drops its own
+                while (i < count && ids[i] < id) {
+                    keep(i++, n++);
+                }
+                if (i < count && ids[i] == id)
+                    i++;
+                if ((header & 3) == LEAVE)
+                    continue;
+
+                //ENTER and CORRECT both carry the full state as of frameTick
+                nextIds[n] = id;
+                nextX[n] = payload.getFloat();
+                nextY[n] = payload.getFloat();
+                nextVx[n] = payload.getFloat();
+                nextVy[n] = payload.getFloat();
+                if (ahead > 0)
+                    advance(nextX, nextY, nextVx, nextVy, n, ahead * deltaTime);
+                n++;
+            }
+            while (i < count) {
+                keep(i++, n++);
+            }
+
+            int[] swapIds = ids; ids = nextIds; nextIds = swapIds;
+            double[] swap = x; x = nextX; nextX = swap;
+            swap = y; y = nextY; nextY = swap;
+            swap = vx; vx = nextVx; nextVx = swap;
+            swap = vy; vy = nextVy; nextVy = swap;
+            count = n;
+
+            if (payload.get() != 0) {
+                explorerCount = payload.getInt();
+                if (explorerX.length < explorerCount) {
+                    explorerX = new float[explorerCount];
+                    explorerY = new float[explorerCount];
+                }
+                for (int e = 0; e < explorerCount; e++) {
+                    payload.getInt(); // id, only needed by the server for change detection
+                    explorerX[e] = payload.getFloat();
+                    explorerY[e] = payload.getFloat();
+                }
+            }
+        }
+
+        private void keep(int from, int to) {
+            nextIds[to] = ids[from];
+            nextX[to] = x[from];
+            nextY[to] = y[from];
+            nextVx[to] = vx[from];
+            nextVy[to] = vy[from];
+        }
+
+        // Particle.advance on one entry of the arrays
+        private static void advance(double[] x, double[] y, double[] vx, double[] vy, int i, double time) {
+            double unfoldedX = x[i] + vx[i] * time, unfoldedY = y[i] + vy[i] * time;
+            x[i] = Particle.fold(unfoldedX, WIDTH);
+            y[i] = Particle.fold(unfoldedY, HEIGHT);
+            if (Particle.mirrored(unfoldedX, WIDTH))
+                vx[i] = -vx[i];
+            if (Particle.mirrored(unfoldedY, HEIGHT))
+                vy[i] = -vy[i];
+        }
+
+        private void ensureNext(int capacity) {
+            if (nextIds.length >= capacity)
+                return;
+            int newCapacity = Math.max(capacity, nextIds.length * 2);
+            nextIds = new int[newCapacity];
+            nextX = new double[newCapacity];
+            nextY = new double[newCapacity];
+            nextVx = new double[newCapacity];
+            nextVy = new double[newCapacity];
+        }
+
+        synchronized void toFrame(ExplorerProtocol.StateFrame frame) {
+            int n = count;
+            if (frame.particleX.length < n) {
+                frame.particleX = new float[n];
+                frame.particleY = new float[n];
+            }
+            for (int i = 0; i < n; i++) {
+                frame.particleX[i] = (float) x[i];
+                frame.particleY[i] = (float) y[i];
+            }
+            frame.particleCount = n;
+
+            if (frame.explorerX.length < explorerCount) {
+                frame.explorerX = new float[explorerCount];
+                frame.explorerY = new float[explorerCount];
+            }
+            System.arraycopy(explorerX, 0, frame.explorerX, 0, explorerCount);
+            System.arraycopy(explorerY, 0, frame.explorerY, 0, explorerCount);
+            frame.explorerCount = explorerCount;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+// Settings for the developer view, read from system properties like SimulationConfig,
+// e.g. java -Drender.heatmapThreshold=500000 -jar STDISCM-Problem-Set-3-Server.jar
+public class RenderConfig {
+    final int heatmapThreshold; // particle count above which the developer view draws a density heatmap
+    final int threads;          // workers that count particles into the heatmap
+
+    RenderConfig(int heatmapThreshold, int threads) {
+        this.heatmapThreshold = Math.max(0, heatmapThreshold);
+        this.threads = Math.max(1, threads);
+    }
+
+    static RenderConfig fromSystemProperties() {
+        return new RenderConfig(
+                Integer.getInteger("render.heatmapThreshold", 200_000),
+                Integer.getInteger("render.threads", Runtime.getRuntime().availableProcessors()));
+    }
+}
@@ -0,0 +1,37 @@
+// The plain per-particle loop, used when the vector kernel is unavailable or not wanted
+public class ScalarStepKernel implements StepKernel {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void step(double[] x, double[] y, double[] vx, double[] vy, int from, int to, double deltaTime) {
+        for (int i = from; i < to; i++) {
+            double newX = x[i] + vx[i] * deltaTime;
+            double newY = y[i] + vy[i] * deltaTime;
+
+            // check collision on borders, same reflection as Particle.move
+            if (newX < 0) {
+                newX = -newX;
+                vx[i] = -vx[i];
+            } else if (newX > WIDTH) {
+                newX = 2 * WIDTH - newX;
+                vx[i] = -vx[i];
+            }
+            if (newY < 0) {
+                newY = -newY;
+                vy[i] = -vy[i];
+            } else if (newY > HEIGHT) {
+                newY = 2 * HEIGHT - newY;
+                vy[i] = -vy[i];
+            }
+
+            x[i] = Particle.clamp(newX, WIDTH);
+            y[i] = Particle.clamp(newY, HEIGHT);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking explorer server (explorer.server=nio). A single selector thread accepts connections, reads client
+// frames and writes state frames back over the same connection, so the thread count stays the
+// same however many explorers are connected. State frames are built by the BroadcastStage,
+// which wakes the selector after every tick so the queued frames get written.
+public class SelectorExplorerServer implements ExplorerServer {
+    private static final int READ_BUFFER_SIZE = 4 + ExplorerProtocol.MAX_CLIENT_FRAME; // one whole frame with its length
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_UNSENT_BYTES = 256 * 1024; // replies piling up from a client that sends but never reads
+
+    private final SimulationEngine engine;
+    private final ServerConfig config;
+    private final List<ExplorerSession> sessions = new CopyOnWriteArrayList<>();
+    private final SendMetrics sendMetrics = new SendMetrics();
+    private final ExplorerProtocol.FrameReader reader = new ExplorerProtocol.FrameReader(ExplorerProtocol.MAX_CLIENT_FRAME);
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private BroadcastStage broadcast;
+    private final AtomicBoolean framesQueued = new AtomicBoolean();
+    private Thread selectorThread;
+    private volatile boolean running;
+    private int nextId;
+
+    SelectorExplorerServer(SimulationEngine engine, ServerConfig config) {
+        this.engine = engine;
+        this.config = config;
+    }
+
+    @Override
+    public List<ExplorerSession> sessions() {
+        return sessions;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(this::run, "explorer-server");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+
+        broadcast = new BroadcastStage(engine, sessions, () -> {
+            framesQueued.set(true);
+            selector.wakeup();
+        });
+        broadcast.start();
+    }
+
+    @Override
+    public void stop() {
+        broadcast.stop();
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        else {
+                            if (key.isReadable())
+                                read(key);
+                            if (key.isValid() && key.isWritable())
+                                write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    } catch (RuntimeException e) {
+                        //Whatever one client sent, only its connection goes, never the selector thread
+                        if (!(key.attachment() instanceof Connection))
+                            throw e;
+                        System.out.println("Dropping client: " + e);
+                        close(key);
+                    }
+                }
+
+                //Pick up whatever the broadcast stage queued since the last wakeup
+                if (!framesQueued.getAndSet(false))
+                    continue;
+                for (SelectionKey key : selector.keys()) {
+                    if (!key.isValid() || !(key.attachment() instanceof Connection))
+                        continue;
+                    try {
+                        pump(key);
+                    } catch (IOException e) {
+                        System.out.println("Dropping client: " + e.getMessage());
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys())
+                close(key);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        Connection connection = new Connection(channel, new ExplorerSession(nextId++, engine, config, sendMetrics));
+        channel.register(selector, SelectionKey.OP_READ, connection);
+        //Closed on this thread by the next pump
+        connection.session.onEvict(() -> {
+            framesQueued.set(true);
+            selector.wakeup();
+        });
+        sessions.add(connection.session);
+        System.out.println("Client connected.");
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.channel.read(connection.in) < 0)
+            throw new IOException("Connection closed by client");
+
+        connection.in.flip();
+        byte type;
+        while ((type = reader.read(connection.in)) != -1) {
+            ByteBuffer reply = connection.session.handle(type, reader.payload());
+            if (reply != null)
+                send(key, reply);
+            if (connection.session.isClosed()) {
+                close(key);
+                return;
+            }
+        }
+        //A frame that cannot fit in the buffer is never going to complete
+        if (connection.in.position() == 0 && connection.in.limit() == connection.in.capacity())
+            throw new IOException("Frame too large");
+        connection.in.compact();
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.flush();
+        pump(key);
+    }
+
+    // Moves queued state frames into the socket, one at a time and only once the previous one is
+    // fully written, so frames the client is too slow for stay in the outbox where the session
+    // sees them as backlog
+    private void pump(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.session.isEvicted())
+            throw new IOException("Client fell behind by more than " + config.maxLagMillis + " ms");
+        ByteBuffer frame;
+        while (connection.out.position() == 0 && (frame = connection.session.poll()) != null) {
+            connection.append(frame);
+            connection.flush();
+        }
+        key.interestOps(connection.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    // Queues a frame and writes as much as the socket takes right away
+    private void send(SelectionKey key, ByteBuffer frame) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.append(frame);
+        connection.flush();
+        if (connection.out.position() > MAX_UNSENT_BYTES)
+            throw new IOException("Client stopped reading");
+        if (connection.out.position() > 0)
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Connection connection) {
+            sessions.remove(connection.session);
+            System.out.println("Client disconnected.");
+        }
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public BroadcastStage broadcastStage() {
+        return broadcast;
+    }
+
+    @Override
+    public SendMetrics sendMetrics() {
+        return sendMetrics;
+    }
+
+    // Per-connection buffers; `in` and `out` are both kept in fill mode between calls
+    private static class Connection {
+        final SocketChannel channel;
+        final ExplorerSession session;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+        Connection(SocketChannel channel, ExplorerSession session) {
+            this.channel = channel;
+            this.session = session;
+        }
+
+        void append(ByteBuffer frame) {
+            if (out.remaining() < frame.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + frame.remaining()));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            out.put(frame);
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            try {
+                channel.write(out);
+            } finally {
+                out.compact();
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// What an ExplorerServer has handed to its sockets, summed over every session it has served, so
+// the totals keep counting after explorers disconnect. Each session adds its own sends here.
+public class SendMetrics {
+    final LatencyHistogram latency = new LatencyHistogram(); // tick to socket, state frames only
+    final LongAdder bytes = new LongAdder();
+    final LongAdder frames = new LongAdder();
+}
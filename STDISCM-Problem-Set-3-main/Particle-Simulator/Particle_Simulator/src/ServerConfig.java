@@ -0,0 +1,36 @@
+// Startup settings for the explorer server, read from system properties like SimulationConfig,
+// e.g. java -Dexplorer.stream=full -jar STDISCM-Problem-Set-3-Server.jar
+public class ServerConfig {
+    // How STATE is streamed to explorers
+    enum StreamMode {
+        FULL,  // every frame lists the whole periphery
+        DELTA, // frames only carry changes against the last acknowledged frame
+        RECKON // particles are sent once and stepped by the client, see ReckonCodec
+    }
+
+    // How explorer connections are served
+    enum ServerMode {
+        NIO,    // one selector thread for every connection, see SelectorExplorerServer
+        VIRTUAL // blocking reads and sends on virtual threads per connection, see VirtualThreadExplorerServer
+    }
+
+    final StreamMode streamMode;
+    final ServerMode serverMode;
+    final int sendRate;      // most state frames per second per explorer, lowered per client under backlog
+    final long maxLagMillis; // how long a client may leave a frame unsent before it is dropped
+
+    ServerConfig(StreamMode streamMode, ServerMode serverMode, int sendRate, long maxLagMillis) {
+        this.streamMode = streamMode;
+        this.serverMode = serverMode;
+        this.sendRate = Math.max(1, sendRate);
+        this.maxLagMillis = Math.max(1, maxLagMillis);
+    }
+
+    static ServerConfig fromSystemProperties() {
+        return new ServerConfig(
+                StreamMode.valueOf(System.getProperty("explorer.stream", "delta").toUpperCase()),
+                ServerMode.valueOf(System.getProperty("explorer.server", "nio").toUpperCase()),
+                Integer.getInteger("explorer.sendRate", 60),
+                Long.getLong("explorer.maxLag", 5000));
+    }
+}
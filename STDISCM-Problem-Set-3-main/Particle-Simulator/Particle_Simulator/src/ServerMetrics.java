@@ -0,0 +1,446 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+// Everything the running server measures, in one place. Published as MXBeans under
+// "ParticleSimulator:type=..." for jconsole or VisualVM, and rendered as Prometheus text for
+// MetricsEndpoint. Values are read on demand from the engine, the explorer server and the
+// developer view; only GC pauses and the per-second rates are collected here.
+public class ServerMetrics {
+    static final String DOMAIN = "ParticleSimulator";
+
+    private final SimulationEngine engine;
+    private final ExplorerServer server;
+    private final LatencyHistogram renderTimes; // null when there is no developer view
+    private final IntSupplier fps;
+
+    private final LatencyHistogram gcPauses = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> gcPausesByCollector = new ConcurrentHashMap<>();
+    private final NotificationListener gcListener = this::onGc;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledExecutorService sampler;
+
+    //Rates over the last second, updated by the sampler
+    private volatile double ticksPerSecond, particlesPerSecond, bytesPerSecond;
+    private long lastTicks, lastParticles, lastBytes, lastSampleNanos;
+
+    ServerMetrics(SimulationEngine engine, ExplorerServer server, LatencyHistogram renderTimes, IntSupplier fps) {
+        this.engine = engine;
+        this.server = server;
+        this.renderTimes = renderTimes;
+        this.fps = fps;
+    }
+
+    // Registers the MXBeans and starts listening for GC pauses
+    void start() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter)
+                emitter.addNotificationListener(gcListener, null, null);
+        }
+
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(mbeans, "Simulation", new Simulation(), SimulationMXBean.class);
+            register(mbeans, "Explorers", new Explorers(), ExplorersMXBean.class);
+            register(mbeans, "GcPauses", new GcPauses(), GcPausesMXBean.class);
+            if (renderTimes != null)
+                register(mbeans, "Render", new Render(), RenderMXBean.class);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+
+        lastSampleNanos = System.nanoTime();
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        sampler.shutdown();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                try {
+                    emitter.removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException ignored) {
+                }
+            }
+        }
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                mbeans.unregisterMBean(name);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        registered.clear();
+    }
+
+    private <T> void register(MBeanServer mbeans, String type, T bean, Class<T> mxbean) throws JMException {
+        ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+        //A second server in the same JVM (benchmarks) replaces the first one's beans
+        if (mbeans.isRegistered(name))
+            mbeans.unregisterMBean(name);
+        mbeans.registerMBean(new StandardMBean(bean, mxbean, true), name);
+        registered.add(name);
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+        long ticks = engine.tickCount(), particles = engine.particlesStepped();
+        long bytes = server.sendMetrics().bytes.sum();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        ticksPerSecond = (ticks - lastTicks) / seconds;
+        particlesPerSecond = (particles - lastParticles) / seconds;
+        bytesPerSecond = (bytes - lastBytes) / seconds;
+        lastTicks = ticks;
+        lastParticles = particles;
+        lastBytes = bytes;
+        lastSampleNanos = now;
+    }
+
+    // Concurrent collectors report their pause phases here as well as stop-the-world collections
+    private void onGc(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long nanos = info.getGcInfo().getDuration() * 1_000_000L;
+        gcPauses.record(nanos);
+        gcPausesByCollector.computeIfAbsent(info.getGcName(), name -> new LatencyHistogram()).record(nanos);
+    }
+
+    // Every metric in the Prometheus text exposition format, version 0.0.4
+    String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        //Simulation
+        header(out, "sim_ticks_total", "counter", "Simulation ticks run.");
+        sample(out, "sim_ticks_total", "", engine.tickCount());
+        header(out, "sim_dropped_ticks_total", "counter", "Ticks skipped because the loop fell behind by more than sim.maxCatchUp.");
+        sample(out, "sim_dropped_ticks_total", "", engine.droppedTicks());
+        header(out, "sim_particles", "gauge", "Particles in the world.");
+        sample(out, "sim_particles", "", engine.particles().size());
+        header(out, "sim_particles_stepped_total", "counter", "Particle steps over all ticks, one per particle per tick.");
+        sample(out, "sim_particles_stepped_total", "", engine.particlesStepped());
+        if (engine.collisions() != null) {
+            header(out, "sim_collisions_total", "counter", "Particle-particle collisions resolved.");
+            sample(out, "sim_collisions_total", "", engine.collisions().contacts());
+        }
+        header(out, "sim_tick_duration_seconds", "histogram", "Time to step and publish one tick.");
+        histogram(out, "sim_tick_duration_seconds", "", engine.tickTimes());
+
+        //Developer view
+        if (renderTimes != null) {
+            header(out, "render_fps", "gauge", "Frames painted per second by the developer view.");
+            sample(out, "render_fps", "", fps.getAsInt());
+            header(out, "render_frame_duration_seconds", "histogram", "Time to draw one developer view frame.");
+            histogram(out, "render_frame_duration_seconds", "", renderTimes);
+        }
+
+        //Explorers
+        List<ExplorerSession> sessions = server.sessions();
+        BroadcastStage stage = server.broadcastStage();
+        SendMetrics sent = server.sendMetrics();
+        header(out, "explorer_sessions", "gauge", "Connected explorers.");
+        sample(out, "explorer_sessions", "", sessions.size());
+        if (stage != null) {
+            header(out, "explorer_queued_frames", "gauge", "Explorers whose previous state frame was still unsent at the latest broadcast.");
+            sample(out, "explorer_queued_frames", "", stage.queuedFrames());
+            header(out, "explorer_dropped_frames_total", "counter", "State frames replaced by a newer one before they were sent.");
+            sample(out, "explorer_dropped_frames_total", "", stage.droppedFrames());
+            header(out, "explorer_evicted_total", "counter", "Explorers disconnected for falling behind by more than explorer.maxLag.");
+            sample(out, "explorer_evicted_total", "", stage.evictedClients());
+        }
+        header(out, "explorer_sent_bytes_total", "counter", "Bytes handed to explorer sockets.");
+        sample(out, "explorer_sent_bytes_total", "", sent.bytes.sum());
+        header(out, "explorer_sent_frames_total", "counter", "Frames handed to explorer sockets.");
+        sample(out, "explorer_sent_frames_total", "", sent.frames.sum());
+        header(out, "explorer_send_latency_seconds", "histogram", "Time from the tick a state frame was built from to the frame being handed to the socket.");
+        histogram(out, "explorer_send_latency_seconds", "", sent.latency);
+
+        header(out, "explorer_session_sent_bytes_total", "counter", "Bytes handed to the socket, per explorer.");
+        for (ExplorerSession session : sessions)
+            sample(out, "explorer_session_sent_bytes_total", explorer(session), session.bytesSent());
+        header(out, "explorer_session_sent_frames_total", "counter", "Frames handed to the socket, per explorer.");
+        for (ExplorerSession session : sessions)
+            sample(out, "explorer_session_sent_frames_total", explorer(session), session.framesSent());
+        header(out, "explorer_session_send_latency_seconds", "summary", "Send latency of state frames, per explorer.");
+        for (ExplorerSession session : sessions) {
+            sample(out, "explorer_session_send_latency_seconds_sum", explorer(session), session.sendLatencyNanos() / 1e9);
+            sample(out, "explorer_session_send_latency_seconds_count", explorer(session), session.statesSent());
+        }
+        header(out, "explorer_session_send_latency_max_seconds", "gauge", "Slowest state frame send, per explorer.");
+        for (ExplorerSession session : sessions)
+            sample(out, "explorer_session_send_latency_max_seconds", explorer(session), session.maxSendLatencyNanos() / 1e9);
+        header(out, "explorer_session_dropped_frames_total", "counter", "State frames replaced before they were sent, per explorer.");
+        for (ExplorerSession session : sessions)
+            sample(out, "explorer_session_dropped_frames_total", explorer(session), session.droppedFrames());
+        header(out, "explorer_session_send_interval_ticks", "gauge", "Ticks between state frames after backoff, per explorer.");
+        for (ExplorerSession session : sessions)
+            sample(out, "explorer_session_send_interval_ticks", explorer(session), session.sendInterval());
+
+        //JVM
+        header(out, "jvm_gc_pause_seconds", "histogram", "Garbage collection pauses, per collector.");
+        for (Map.Entry<String, LatencyHistogram> entry : gcPausesByCollector.entrySet())
+            histogram(out, "jvm_gc_pause_seconds", "collector=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_heap_used_bytes", "gauge", "Heap in use.");
+        sample(out, "jvm_heap_used_bytes", "", heap.getUsed());
+        header(out, "jvm_heap_committed_bytes", "gauge", "Heap committed by the JVM.");
+        sample(out, "jvm_heap_committed_bytes", "", heap.getCommitted());
+
+        return out.toString();
+    }
+
+    private static String explorer(ExplorerSession session) {
+        return "explorer=\"" + session.id + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    // Cumulative buckets, then sum and count, as Prometheus expects them
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++)
+            sample(out, name + "_bucket", prefix + "le=\"" + LatencyHistogram.BOUNDS[i] + "\"", histogram.cumulative(i));
+        long count = histogram.count();
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        sample(out, name + "_sum", labels, histogram.sumNanos() / 1e9);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public interface SimulationMXBean {
+        long getTicks();
+        long getDroppedTicks();
+        int getParticles();
+        double getTicksPerSecond();
+        double getParticlesSteppedPerSecond();
+        long getCollisions();
+        double getTickMeanMillis();
+        double getTickP99Millis();
+        double getTickMaxMillis();
+    }
+
+    public interface ExplorersMXBean {
+        int getSessions();
+        int getQueuedFrames();
+        long getDroppedFrames();
+        long getEvictedClients();
+        long getBytesSent();
+        double getBytesSentPerSecond();
+        double getSendLatencyMeanMillis();
+        double getSendLatencyP99Millis();
+        double getSendLatencyMaxMillis();
+        List<ExplorerStats> getExplorers();
+    }
+
+    public interface RenderMXBean {
+        int getFps();
+        double getFrameMeanMillis();
+        double getFrameP99Millis();
+        double getFrameMaxMillis();
+    }
+
+    public interface GcPausesMXBean {
+        long getPauses();
+        double getPauseMeanMillis();
+        double getPauseP99Millis();
+        double getPauseMaxMillis();
+    }
+
+    // One row of ExplorersMXBean.getExplorers, shown as a table in jconsole
+    public static class ExplorerStats {
+        private final ExplorerSession session;
+
+        ExplorerStats(ExplorerSession session) {
+            this.session = session;
+        }
+
+        public int getId() {
+            return session.id;
+        }
+
+        public long getBytesSent() {
+            return session.bytesSent();
+        }
+
+        public long getFramesSent() {
+            return session.framesSent();
+        }
+
+        public long getDroppedFrames() {
+            return session.droppedFrames();
+        }
+
+        public int getSendInterval() {
+            return session.sendInterval();
+        }
+
+        public double getSendLatencyMeanMillis() {
+            long states = session.statesSent();
+            return states == 0 ? 0 : session.sendLatencyNanos() / 1e6 / states;
+        }
+
+        public double getSendLatencyMaxMillis() {
+            return session.maxSendLatencyNanos() / 1e6;
+        }
+    }
+
+    private class Simulation implements SimulationMXBean {
+        public long getTicks() {
+            return engine.tickCount();
+        }
+
+        public long getDroppedTicks() {
+            return engine.droppedTicks();
+        }
+
+        public int getParticles() {
+            return engine.particles().size();
+        }
+
+        public double getTicksPerSecond() {
+            return ticksPerSecond;
+        }
+
+        public double getParticlesSteppedPerSecond() {
+            return particlesPerSecond;
+        }
+
+        public long getCollisions() {
+            return engine.collisions() == null ? 0 : engine.collisions().contacts();
+        }
+
+        public double getTickMeanMillis() {
+            return engine.tickTimes().meanMillis();
+        }
+
+        public double getTickP99Millis() {
+            return engine.tickTimes().quantileMillis(0.99);
+        }
+
+        public double getTickMaxMillis() {
+            return engine.tickTimes().maxNanos() / 1e6;
+        }
+    }
+
+    private class Explorers implements ExplorersMXBean {
+        public int getSessions() {
+            return server.sessions().size();
+        }
+
+        public int getQueuedFrames() {
+            BroadcastStage stage = server.broadcastStage();
+            return stage == null ? 0 : stage.queuedFrames();
+        }
+
+        public long getDroppedFrames() {
+            BroadcastStage stage = server.broadcastStage();
+            return stage == null ? 0 : stage.droppedFrames();
+        }
+
+        public long getEvictedClients() {
+            BroadcastStage stage = server.broadcastStage();
+            return stage == null ? 0 : stage.evictedClients();
+        }
+
+        public long getBytesSent() {
+            return server.sendMetrics().bytes.sum();
+        }
+
+        public double getBytesSentPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public double getSendLatencyMeanMillis() {
+            return server.sendMetrics().latency.meanMillis();
+        }
+
+        public double getSendLatencyP99Millis() {
+            return server.sendMetrics().latency.quantileMillis(0.99);
+        }
+
+        public double getSendLatencyMaxMillis() {
+            return server.sendMetrics().latency.maxNanos() / 1e6;
+        }
+
+        public List<ExplorerStats> getExplorers() {
+            List<ExplorerStats> stats = new ArrayList<>();
+            for (ExplorerSession session : server.sessions())
+                stats.add(new ExplorerStats(session));
+            return stats;
+        }
+    }
+
+    private class Render implements RenderMXBean {
+        public int getFps() {
+            return fps.getAsInt();
+        }
+
+        public double getFrameMeanMillis() {
+            return renderTimes.meanMillis();
+        }
+
+        public double getFrameP99Millis() {
+            return renderTimes.quantileMillis(0.99);
+        }
+
+        public double getFrameMaxMillis() {
+            return renderTimes.maxNanos() / 1e6;
+        }
+    }
+
+    private class GcPauses implements GcPausesMXBean {
+        public long getPauses() {
+            return gcPauses.count();
+        }
+
+        public double getPauseMeanMillis() {
+            return gcPauses.meanMillis();
+        }
+
+        public double getPauseP99Millis() {
+            return gcPauses.quantileMillis(0.99);
+        }
+
+        public double getPauseMaxMillis() {
+            return gcPauses.maxNanos() / 1e6;
+        }
+    }
+}
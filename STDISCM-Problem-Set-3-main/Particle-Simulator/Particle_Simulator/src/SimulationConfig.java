@@ -0,0 +1,61 @@
+// Startup settings for the simulation, read from system properties so they can be
+// passed on the command line, e.g. java -Dsim.threads=8 -jar STDISCM-Problem-Set-3-Server.jar
+public class SimulationConfig {
+    enum Kernel {
+        AUTO,   // the vector kernel when jdk.incubator.vector is loaded, else the scalar loop
+        SCALAR, // see ScalarStepKernel
+        VECTOR  // see VectorStepKernel, falls back like AUTO but says so
+    }
+
+    final int threads;       // worker threads used to step particles
+    final int minChunk;      // smallest slice of particles handed to one worker
+    final int tickRate;      // simulation ticks per real second
+    final int maxCatchUp;    // most ticks run back to back after a stall before time is dropped
+    final double timeScale;  // simulated seconds per real second
+    final boolean collisions;      // particles bounce off each other, not only off the walls
+    final double collisionRadius;  // radius of a particle for collisions, in pixels
+    final Kernel kernel;           // how particles are stepped, see StepKernel
+    final boolean offHeap;         // particles kept outside the Java heap, see OffHeapParticleStore
+
+    SimulationConfig(int threads, int minChunk, int tickRate, int maxCatchUp, double timeScale,
+                     boolean collisions, double collisionRadius, Kernel kernel, boolean offHeap) {
+        //CollisionPhase works on ParticleStore's arrays, refuse at startup rather than quietly run without it
+        if (collisions && offHeap)
+            throw new IllegalArgumentException("sim.collisions needs the heap particle store, it cannot be used with sim.offHeap");
+        this.threads = Math.max(1, threads);
+        this.minChunk = Math.max(1, minChunk);
+        this.tickRate = Math.max(1, tickRate);
+        this.maxCatchUp = Math.max(1, maxCatchUp);
+        this.timeScale = timeScale;
+        this.collisions = collisions;
+        this.collisionRadius = Math.max(0.5, collisionRadius);
+        this.kernel = kernel;
+        this.offHeap = offHeap;
+    }
+
+    SimulationConfig(int threads, int minChunk) {
+        this(threads, minChunk, 60, 5, 3.0, false, 5, Kernel.AUTO, false);
+    }
+
+    // Simulated seconds covered by one tick; 3.0 / 60 keeps the original 0.05 step
+    double deltaTime() {
+        return timeScale / tickRate;
+    }
+
+    long tickNanos() {
+        return 1_000_000_000L / tickRate;
+    }
+
+    static SimulationConfig fromSystemProperties() {
+        return new SimulationConfig(
+                Integer.getInteger("sim.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("sim.minChunk", 16_384),
+                Integer.getInteger("sim.tickRate", 60),
+                Integer.getInteger("sim.maxCatchUp", 5),
+                Double.parseDouble(System.getProperty("sim.timeScale", "3.0")),
+                Boolean.getBoolean("sim.collisions"),
+                Double.parseDouble(System.getProperty("sim.collisionRadius", "5")),
+                Kernel.valueOf(System.getProperty("sim.kernel", "auto").toUpperCase()),
+                Boolean.getBoolean("sim.offHeap"));
+    }
+}
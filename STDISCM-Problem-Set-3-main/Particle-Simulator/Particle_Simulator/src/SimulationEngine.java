@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Owns the particle store and steps it on its own thread, splitting each tick across a
+// ForkJoinPool. Nothing here runs on the Swing EDT; callers only enqueue spawns.
+//
+// Ticks run on a fixed timestep: real time is accumulated and consumed in whole ticks, so the
+// simulation advances at the same rate however often the screen repaints.
+//
+// Without collisions every particle's path has a closed form (see Particle.advance), so a loop
+// that has fallen behind jumps over the backlog in one pass instead of dropping it.
+//
+// After every tick the world is published as a WorldSnapshot through a single volatile
+// reference. Readers never see the store itself, so they never block or race the stepping.
+public class SimulationEngine {
+    private final SimulationConfig config;
+    private final double deltaTime;
+    private final long tickNanos;
+    private final ParticleSet particles;
+    private final CollisionPhase collisions; // null unless sim.collisions is on, which SimulationConfig only allows with the heap store
+    private final ForkJoinPool pool;
+    private final Queue<Consumer<ParticleSet>> pendingSpawns;
+    private final List<WorldSnapshot> snapshotBuffers;
+    private final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
+    private volatile WorldSnapshot snapshot;
+    private Thread loopThread;
+    private volatile boolean running;
+    private volatile long tickCount;
+    private volatile long lastTickNanos = System.nanoTime(); // real time the latest tick stands for
+    private volatile long droppedTicks;
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private volatile long particlesStepped;
+
+    SimulationEngine(SimulationConfig config) {
+        this.config = config;
+        deltaTime = config.deltaTime();
+        tickNanos = config.tickNanos();
+        StepKernel kernel = StepKernel.create(config.kernel);
+        particles = config.offHeap
+                ? new OffHeapParticleStore(ParticleStore.INITIAL_CAPACITY, kernel)
+                : new ParticleStore(ParticleStore.INITIAL_CAPACITY, kernel);
+        collisions = config.collisions ? new CollisionPhase(config.collisionRadius) : null;
+        pool = new ForkJoinPool(config.threads);
+        pendingSpawns = new ConcurrentLinkedQueue<>();
+        snapshotBuffers = new ArrayList<>();
+
+        //Start with an empty published frame so readers never see null
+        snapshot = new WorldSnapshot(0);
+        snapshot.publish();
+        snapshotBuffers.add(snapshot);
+    }
+
+    ParticleSet particles() {
+        return particles;
+    }
+
+    long tickCount() {
+        return tickCount;
+    }
+
+    // Continues counting from a restored checkpoint's tick; call before start()
+    void resumeAt(long tick) {
+        tickCount = tick;
+    }
+
+    // Returns the latest published frame, which must be handed back with release()
+    WorldSnapshot acquireSnapshot() {
+        while (true) {
+            WorldSnapshot s = snapshot;
+            if (s.tryAcquire())
+                return s;
+        }
+    }
+
+    double deltaTime() {
+        return deltaTime;
+    }
+
+    int tickRate() {
+        return config.tickRate;
+    }
+
+    // Ticks skipped because the loop fell further behind than maxCatchUp allows and collisions
+    // ruled out jumping over them
+    long droppedTicks() {
+        return droppedTicks;
+    }
+
+    // The collision phase, or null when particles only bounce off the walls
+    CollisionPhase collisions() {
+        return collisions;
+    }
+
+    // Time spent in each tick from applying spawns to publishing, not counting tick listeners
+    LatencyHistogram tickTimes() {
+        return tickTimes;
+    }
+
+    // Particle updates over all ticks so far, one per particle per tick or jump
+    long particlesStepped() {
+        return particlesStepped;
+    }
+
+    // How far real time has moved past the latest tick, as a fraction of a tick in [0, 1].
+    // Renderers blend the previous and current tick by this amount.
+    double interpolationAlpha() {
+        double alpha = (double) (System.nanoTime() - lastTickNanos) / tickNanos;
+        return alpha < 0 ? 0 : (alpha > 1 ? 1 : alpha);
+    }
+
+    void start() {
+        running = true;
+        loopThread = new Thread(this::runLoop, "simulation");
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (loopThread != null)
+            loopThread.interrupt();
+        pool.shutdown();
+    }
+
+    private void runLoop() {
+        long previous = System.nanoTime();
+        long accumulator = 0;
+
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+
+            int steps = 0;
+            while (accumulator >= tickNanos && steps < config.maxCatchUp) {
+                tick();
+                accumulator -= tickNanos;
+                steps++;
+            }
+
+            //Still behind after the catch-up limit: jump over the backlog in one pass, or drop it
+            //when collisions have to be stepped, instead of spiralling
+            if (accumulator >= tickNanos) {
+                if (collisions == null)
+                    jump(accumulator / tickNanos);
+                else
+                    droppedTicks += accumulator / tickNanos;
+                accumulator %= tickNanos;
+            }
+            lastTickNanos = now - accumulator;
+
+            LockSupport.parkNanos(tickNanos - accumulator);
+        }
+    }
+
+    // Advances the world by one tick, callable directly when no ticker thread is running
+    void tick() {
+        advance(1);
+    }
+
+    // Advances the world by `ticks` ticks at the cost of one, publishing only the last. Callable
+    // directly when no ticker thread is running; only without collisions, which have no closed form.
+    void jump(long ticks) {
+        if (collisions != null)
+            throw new IllegalStateException("Cannot jump ahead with sim.collisions on");
+        if (ticks > 0)
+            advance(ticks);
+    }
+
+    private void advance(long ticks) {
+        long start = System.nanoTime();
+
+        //Apply spawns queued since the last tick so the store is only written by this thread
+        Consumer<ParticleSet> spawn;
+        while ((spawn = pendingSpawns.poll()) != null) {
+            spawn.accept(particles);
+        }
+
+        int count = particles.size();
+        WorldSnapshot next = claimSnapshotBuffer();
+        next.prepare(tickCount + ticks, count);
+
+        //Each slice is copied into the snapshot right after it is stepped, while still in cache,
+        //unless collisions still have to move particles in between
+        boolean serial = count <= config.minChunk || config.threads == 1;
+        //Aim for a few chunks per worker so stragglers get stolen from
+        int chunk = Math.max(config.minChunk, count / (config.threads * 4));
+        if (collisions == null) {
+            if (serial) {
+                moveInto(particles, next, 0, count, ticks, deltaTime);
+            } else {
+                pool.invoke(new StepTask(particles, next, ticks, 0, count, chunk, deltaTime));
+            }
+        } else if (serial) {
+            particles.step(0, count, deltaTime);
+            collisions.resolve((ParticleStore) particles, count, null);
+            particles.copyTo(next, 0, count);
+        } else {
+            pool.invoke(new StepTask(particles, null, 1, 0, count, chunk, deltaTime));
+            collisions.resolve((ParticleStore) particles, count, pool);
+            pool.invoke(new StepTask(particles, next, 0, 0, count, chunk, deltaTime));
+        }
+        next.grid.build(next.cell, count);
+        tickCount += ticks;
+
+        next.publish();
+        snapshot = next;
+        particlesStepped += count;
+        tickTimes.record(System.nanoTime() - start);
+
+        for (Runnable listener : tickListeners) {
+            listener.run();
+        }
+    }
+
+    // Runs `listener` on the simulation thread after every published tick; it must return quickly
+    void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    void removeTickListener(Runnable listener) {
+        tickListeners.remove(listener);
+    }
+
+    // Finds a buffer that is neither published nor being read, allocating only when all are busy
+    private WorldSnapshot claimSnapshotBuffer() {
+        WorldSnapshot published = snapshot;
+        for (WorldSnapshot buffer : snapshotBuffers) {
+            if (buffer != published && buffer.tryClaim())
+                return buffer;
+        }
+        WorldSnapshot buffer = new WorldSnapshot(particles.capacity());
+        snapshotBuffers.add(buffer);
+        return buffer;
+    }
+
+    // Runs `action` on the simulation thread before the next tick, in order with queued spawns,
+    // while the store holds exactly tick tickCount()
+    void withParticles(Consumer<ParticleSet> action) {
+        pendingSpawns.add(action);
+    }
+
+    void addParticles(int n, double startX, double startY, double endX, double endY,
+                      double initialAngle, double velocity) {
+        pendingSpawns.add(store -> {
+            store.ensureCapacity(store.size() + n);
+            for (int i = 0; i < n; i++) {
+                double randomX = startX + Math.random() * (endX - startX);
+                double randomY = startY + Math.random() * (endY - startY);
+                store.add(randomX, randomY, initialAngle, velocity);
+            }
+        });
+    }
+
+    void addParticlesByAngle(int n, double startX, double startY, double velocity, double startAngle, double endAngle) {
+        pendingSpawns.add(store -> {
+            store.ensureCapacity(store.size() + n);
+            for (int i = 0; i < n; i++) {
+                double randomAngle = startAngle + Math.random() * (endAngle - startAngle);
+                store.add(startX, startY, randomAngle, velocity);
+            }
+        });
+    }
+
+    void addParticlesByVelocity(int n, double startX, double startY, double angle, double startVelocity, double endVelocity) {
+        pendingSpawns.add(store -> {
+            store.ensureCapacity(store.size() + n);
+            for (int i = 0; i < n; i++) {
+                double randomVelocity = startVelocity + Math.random() * (endVelocity - startVelocity);
+                store.add(startX, startY, angle, randomVelocity);
+            }
+        });
+    }
+
+    // Moves particles [from, to) `ticks` ticks ahead: none, one step, or more in closed form;
+    // then copies them into the snapshot when one is given
+    private static void moveInto(ParticleSet particles, WorldSnapshot snapshot, int from, int to, long ticks, double deltaTime) {
+        if (ticks == 1 && snapshot != null) {
+            particles.stepInto(snapshot, from, to, deltaTime);
+            return;
+        }
+        if (ticks == 1)
+            particles.step(from, to, deltaTime);
+        else if (ticks > 1)
+            particles.advance(from, to, ticks * deltaTime);
+        if (snapshot != null)
+            particles.copyTo(snapshot, from, to);
+    }
+
+    // Splits [from, to) in halves until a slice is at most one chunk long, then moves the slice
+    // `ticks` ticks ahead and/or copies it into the snapshot when one is given
+    private static class StepTask extends RecursiveAction {
+        private final ParticleSet particles;
+        private final WorldSnapshot snapshot;
+        private final long ticks;
+        private final int from, to, chunk;
+        private final double deltaTime;
+
+        StepTask(ParticleSet particles, WorldSnapshot snapshot, long ticks, int from, int to, int chunk, double deltaTime) {
+            this.particles = particles;
+            this.snapshot = snapshot;
+            this.ticks = ticks;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.deltaTime = deltaTime;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                moveInto(particles, snapshot, from, to, ticks, deltaTime);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(particles, snapshot, ticks, from, mid, chunk, deltaTime),
+                    new StepTask(particles, snapshot, ticks, mid, to, chunk, deltaTime));
+        }
+    }
+}
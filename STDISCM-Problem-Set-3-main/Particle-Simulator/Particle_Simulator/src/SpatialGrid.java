@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+// Uniform grid over the 1280x720 box, rebuilt from scratch every tick with a counting sort.
+// Particles of one cell sit next to each other in `items`, so a range query only touches
+// the cells it overlaps and its cost follows local density rather than the world size.
+public class SpatialGrid {
+    static final int CELL_SIZE = 16;
+    // One extra row and column so particles exactly on the far walls get a cell
+    static final int COLUMNS = 1280 / CELL_SIZE + 1;
+    static final int ROWS = 720 / CELL_SIZE + 1;
+    static final int CELLS = COLUMNS * ROWS;
+
+    interface Visitor {
+        void visit(int index);
+    }
+
+    private final int[] cellStart = new int[CELLS + 1]; // items of cell c are in [cellStart[c], cellStart[c + 1])
+    private int[] items = new int[0];
+
+    static int column(double x) {
+        int c = (int) (x / CELL_SIZE);
+        return c < 0 ? 0 : (c >= COLUMNS ? COLUMNS - 1 : c);
+    }
+
+    static int row(double y) {
+        int r = (int) (y / CELL_SIZE);
+        return r < 0 ? 0 : (r >= ROWS ? ROWS - 1 : r);
+    }
+
+    static int cellOf(double x, double y) {
+        return row(y) * COLUMNS + column(x);
+    }
+
+    // Buckets particles [0, count) by their precomputed cell ids
+    void build(int[] cells, int count) {
+        if (items.length < count)
+            items = new int[Math.max(count, items.length + (items.length >> 1))];
+
+        int[] start = cellStart;
+        Arrays.fill(start, 0);
+        for (int i = 0; i < count; i++) {
+            start[cells[i] + 1]++;
+        }
+        for (int c = 0; c < CELLS; c++) {
+            start[c + 1] += start[c];
+        }
+
+        //Scatter using each bucket start as a cursor
+        for (int i = 0; i < count; i++) {
+            items[start[cells[i]]++] = i;
+        }
+        //Every cursor now sits on the next bucket's start, shift them back by one cell
+        for (int c = CELLS; c > 0; c--) {
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+        start[CELLS] = count;
+    }
+
+    // Visits every particle in cells overlapping the rectangle; callers apply the exact bounds
+    void query(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        int c0 = column(minX), c1 = column(maxX);
+        int r0 = row(minY), r1 = row(maxY);
+        for (int r = r0; r <= r1; r++) {
+            int rowBase = r * COLUMNS;
+            int from = cellStart[rowBase + c0];
+            int to = cellStart[rowBase + c1 + 1]; // cells of one row are contiguous
+            for (int k = from; k < to; k++) {
+                visitor.visit(items[k]);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+// Steps particles [from, to) of a ParticleStore's arrays by one tick, reflecting off the walls
+// exactly like Particle.move, picked once at startup by sim.kernel. The vector kernel needs the
+// incubating jdk.incubator.vector module, so it lives in the `vector` source root and is only ever
+// loaded by name; when it wasn't compiled in or the module is missing at run time
+// (java --add-modules jdk.incubator.vector) the scalar loop stands in.
+public interface StepKernel {
+    StepKernel SCALAR = new ScalarStepKernel();
+
+    static StepKernel create(SimulationConfig.Kernel kernel) {
+        if (kernel == SimulationConfig.Kernel.SCALAR)
+            return SCALAR;
+        StepKernel vector = loadVector();
+        if (vector != null)
+            return vector;
+        if (kernel == SimulationConfig.Kernel.VECTOR)
+            System.out.println("The vector kernel is not available (compile `vector` and run with --add-modules jdk.incubator.vector), stepping particles with the scalar kernel");
+        return SCALAR;
+    }
+
+    // Null when the module is missing or the CPU has no vector lanes for doubles
+    private static StepKernel loadVector() {
+        try {
+            return (StepKernel) Class.forName("VectorStepKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // Shown in reports, e.g. "vector (4 lanes)"
+    String name();
+
+    void step(double[] x, double[] y, double[] vx, double[] vy, int from, int to, double deltaTime);
+}
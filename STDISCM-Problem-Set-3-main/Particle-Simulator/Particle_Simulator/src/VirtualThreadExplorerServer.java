@@ -0,0 +1,172 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Blocking explorer server on virtual threads (explorer.server=virtual). Each connection gets a
+// reader and a sender that writes what the BroadcastStage queues, both plain blocking loops; a
+// slow or idle explorer only parks its own virtual threads, so thousands share the carrier pool.
+public class VirtualThreadExplorerServer implements ExplorerServer {
+    private final SimulationEngine engine;
+    private final ServerConfig config;
+    private final List<ExplorerSession> sessions = new CopyOnWriteArrayList<>();
+    private final SendMetrics sendMetrics = new SendMetrics();
+
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private BroadcastStage broadcast;
+    private volatile boolean running;
+
+    VirtualThreadExplorerServer(SimulationEngine engine, ServerConfig config) {
+        this.engine = engine;
+        this.config = config;
+    }
+
+    @Override
+    public List<ExplorerSession> sessions() {
+        return sessions;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        running = true;
+        acceptThread = Thread.ofVirtual().name("explorer-accept").start(this::acceptLoop);
+
+        //Senders block on their outbox, nothing to signal
+        broadcast = new BroadcastStage(engine, sessions, () -> {});
+        broadcast.start();
+    }
+
+    @Override
+    public void stop() {
+        broadcast.stop();
+        running = false;
+        try {
+            serverSocket.close();
+            acceptThread.join();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public BroadcastStage broadcastStage() {
+        return broadcast;
+    }
+
+    @Override
+    public SendMetrics sendMetrics() {
+        return sendMetrics;
+    }
+
+    private void acceptLoop() {
+        int counter = 0;
+        while (running) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                System.out.println("Client connected.");
+                Connection connection = new Connection(clientSocket, new ExplorerSession(counter, engine, config, sendMetrics));
+                Thread.ofVirtual().name("explorer-" + counter).start(connection::readLoop);
+                counter++;
+            } catch (IOException e) {
+                if (running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final ExplorerSession session;
+        private DataOutputStream out;
+        private Thread sender;
+        //A ReentrantLock rather than synchronized, which would pin the carrier thread while writing
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        Connection(Socket socket, ExplorerSession session) {
+            this.socket = socket;
+            this.session = session;
+            //Closing the socket also unblocks a sender stuck writing to it
+            session.onEvict(this::close);
+        }
+
+        void readLoop() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                ExplorerProtocol.FrameReader reader = new ExplorerProtocol.FrameReader(ExplorerProtocol.MAX_CLIENT_FRAME);
+
+                sender = Thread.ofVirtual().name("explorer-" + session.id + "-send").start(this::sendLoop);
+                sessions.add(session);
+
+                while (!session.isClosed()) {
+                    byte type = reader.read(in);
+                    ByteBuffer reply = session.handle(type, reader.payload());
+                    if (reply != null)
+                        send(reply);
+                }
+            } catch (EOFException ignored) {
+                //Client went away without EXIT
+            } catch (IOException | UncheckedIOException e) {
+                //Already closed on eviction, the read failing is expected
+                if (open.get())
+                    e.printStackTrace();
+            } catch (RuntimeException e) {
+                //A malformed frame only costs the client that sent it its connection
+                System.out.println("Dropping client: " + e);
+            } finally {
+                close();
+            }
+        }
+
+        //Writes state frames as the broadcast stage queues them
+        void sendLoop() {
+            try {
+                while (open.get()) {
+                    send(session.take());
+                }
+            } catch (InterruptedException ignored) {
+                //Closing
+            } catch (UncheckedIOException e) {
+                close();
+            }
+        }
+
+        void send(ByteBuffer frame) {
+            sendLock.lock();
+            try {
+                out.write(frame.array(), frame.position(), frame.remaining());
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        void close() {
+            if (!open.compareAndSet(true, false))
+                return;
+            if (session.isEvicted())
+                System.out.println("Dropping client: fell behind by more than " + config.maxLagMillis + " ms");
+            sessions.remove(session);
+            if (sender != null)
+                sender.interrupt();
+            System.out.println("Client disconnected.");
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// The whole world in one file, laid out like the store so saving and restoring are bulk copies
+// through a FileChannel, a block of particles per call, with nothing parsed per particle.
+//
+// The file is read and written, never mapped: a mapping stays alive until its buffer happens to
+// be collected, and while it does Windows refuses to replace or delete the file, which is exactly
+// what each new checkpoint does to the previous one.
+//
+// Layout, in the machine's byte order: int magic, int version, long tick, int particle count n,
+// then n doubles each of x, y, vx and vy. A file from a machine of the other byte order fails the
+// magic check rather than loading garbage.
+//
+// Explorers are deliberately left out. Their connections end with the process, and a client
+// sends its position in HELLO whenever it connects, so each one puts itself back.
+public class WorldCheckpoint {
+    static final int MAGIC = 0x5053434B; // "PSCK"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 20;
+
+    private static final int BLOCK = 65_536; // particles per read or write, 512 KB per coordinate
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    final long tick;
+    final int particles;
+
+    private WorldCheckpoint(long tick, int particles) {
+        this.tick = tick;
+        this.particles = particles;
+    }
+
+    // The store as of one tick, copied out block by block so the file can be written from another
+    // thread while the simulation carries on. The blocks are kept from one checkpoint to the next,
+    // so once they cover the world a copy allocates nothing. They take as much memory as the store,
+    // on the heap even for an off-heap store, whose direct memory limit has no room for a second copy.
+    static class Snapshot {
+        private final List<ByteBuffer[]> blocks = new ArrayList<>();
+        private final List<DoubleBuffer[]> columns = new ArrayList<>();
+        private long tick;
+        private int size;
+
+        // Copies the store as of `tick`. Must run on the simulation thread between ticks, see
+        // SimulationEngine.withParticles, and not while write() runs.
+        void copy(long tick, ParticleSet particles) {
+            int n = particles.size();
+            for (int b = 0, from = 0; from < n; b++, from += BLOCK) {
+                if (b == blocks.size()) {
+                    ByteBuffer[] block = new ByteBuffer[4];
+                    for (int c = 0; c < 4; c++) {
+                        block[c] = ByteBuffer.allocate(BLOCK * Double.BYTES).order(ORDER);
+                    }
+                    blocks.add(block);
+                    columns.add(WorldCheckpoint.columns(block));
+                }
+                DoubleBuffer[] block = columns.get(b);
+                particles.save(from, Math.min(n, from + BLOCK), block[0], block[1], block[2], block[3]);
+            }
+            this.tick = tick;
+            this.size = n;
+        }
+
+        // Writes the copy to a temporary file next to `file`, flushes it to disk and moves it over
+        // the previous checkpoint in one step, so a crash leaves either the old file or the new
+        // one, never half of each
+        void write(Path file) throws IOException {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+                header.putInt(MAGIC).putInt(VERSION).putLong(tick).putInt(size).flip();
+                WorldCheckpoint.write(channel, header, 0);
+
+                long columnBytes = (long) size * Double.BYTES;
+                for (int b = 0, from = 0; from < size; b++, from += BLOCK) {
+                    ByteBuffer[] block = blocks.get(b);
+                    for (int c = 0; c < 4; c++) {
+                        block[c].clear().limit((Math.min(size, from + BLOCK) - from) * Double.BYTES);
+                        WorldCheckpoint.write(channel, block[c], HEADER_SIZE + c * columnBytes + (long) from * Double.BYTES);
+                    }
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    // Loads the checkpoint at `file` into the engine's store and resumes its tick count. Call
+    // before the engine starts. On failure the store is left empty and the tick count untouched.
+    static WorldCheckpoint restore(Path file, SimulationEngine engine) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException(file + " is not a checkpoint");
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            read(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a checkpoint, or was written on a machine of another byte order");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " is checkpoint version " + version + ", expected " + VERSION);
+            long tick = header.getLong();
+            int n = header.getInt();
+            ParticleSet particles = engine.particles();
+            if (n < 0 || n > particles.maxCapacity())
+                throw new IOException(file + " claims " + n + " particles, the store holds 0 to " + particles.maxCapacity());
+
+            long columnBytes = (long) n * Double.BYTES;
+            if (channel.size() < HEADER_SIZE + 4 * columnBytes)
+                throw new IOException(file + " is truncated");
+
+            particles.clear();
+            try {
+                particles.ensureCapacity(n);
+                ByteBuffer[] blocks = blocks();
+                DoubleBuffer[] columns = columns(blocks);
+                for (int from = 0; from < n; from += BLOCK) {
+                    int count = Math.min(BLOCK, n - from);
+                    for (int c = 0; c < 4; c++) {
+                        blocks[c].clear().limit(count * Double.BYTES);
+                        read(channel, blocks[c], HEADER_SIZE + c * columnBytes + (long) from * Double.BYTES);
+                    }
+                    particles.addAll(columns[0], columns[1], columns[2], columns[3], count);
+                }
+            } catch (IOException | RuntimeException e) {
+                particles.clear();
+                throw e;
+            }
+            engine.resumeAt(tick);
+            return new WorldCheckpoint(tick, n);
+        }
+    }
+
+    // One block of each coordinate; direct so the channel copies straight from and into them
+    private static ByteBuffer[] blocks() {
+        ByteBuffer[] blocks = new ByteBuffer[4];
+        for (int c = 0; c < 4; c++) {
+            blocks[c] = ByteBuffer.allocateDirect(BLOCK * Double.BYTES).order(ORDER);
+        }
+        return blocks;
+    }
+
+    // Double views of the blocks, from index 0 whatever the blocks' positions
+    private static DoubleBuffer[] columns(ByteBuffer[] blocks) {
+        DoubleBuffer[] columns = new DoubleBuffer[4];
+        for (int c = 0; c < 4; c++) {
+            columns[c] = blocks[c].asDoubleBuffer();
+        }
+        return columns;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("Checkpoint ended early");
+            position += read;
+        }
+    }
+}
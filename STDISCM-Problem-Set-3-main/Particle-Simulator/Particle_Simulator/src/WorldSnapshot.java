@@ -0,0 +1,90 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One published frame of the world. The simulation fills a snapshot while it steps and then
+// publishes it; readers acquire it, read without locks and release it when done.
+//
+// Buffers are recycled instead of allocated per tick. The reference count guards reuse:
+// -1 means the simulation is writing the buffer, 0 means free, n > 0 means n readers.
+public class WorldSnapshot {
+    private final AtomicInteger refs = new AtomicInteger(-1);
+
+    long tick;
+    long tickMicros; // wall clock when the tick was stepped, see ExplorerProtocol.epochMicros
+    int count;
+    float[] x, y;   // position
+    float[] vx, vy; // velocity components in pixels per second
+    int[] cell;     // SpatialGrid cell of each particle
+    final SpatialGrid grid = new SpatialGrid();
+
+    WorldSnapshot(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        cell = new int[capacity];
+    }
+
+    int size() {
+        return count;
+    }
+
+    float x(int i) {
+        return x[i];
+    }
+
+    float y(int i) {
+        return y[i];
+    }
+
+    float vx(int i) {
+        return vx[i];
+    }
+
+    float vy(int i) {
+        return vy[i];
+    }
+
+    // Visits particles near the rectangle, see SpatialGrid.query
+    void query(double minX, double minY, double maxX, double maxY, SpatialGrid.Visitor visitor) {
+        grid.query(minX, minY, maxX, maxY, visitor);
+    }
+
+    // Reader side: fails only while the simulation owns the buffer
+    boolean tryAcquire() {
+        while (true) {
+            int r = refs.get();
+            if (r < 0)
+                return false;
+            if (refs.compareAndSet(r, r + 1))
+                return true;
+        }
+    }
+
+    void release() {
+        refs.decrementAndGet();
+    }
+
+    // Writer side: only a buffer nobody is reading can be rewritten
+    boolean tryClaim() {
+        return refs.compareAndSet(0, -1);
+    }
+
+    void publish() {
+        refs.set(0);
+    }
+
+    // Called by the owning writer before filling, may grow the arrays
+    void prepare(long tick, int count) {
+        if (x.length < count) {
+            int capacity = Math.max(count, x.length + (x.length >> 1));
+            x = new float[capacity];
+            y = new float[capacity];
+            vx = new float[capacity];
+            vy = new float[capacity];
+            cell = new int[capacity];
+        }
+        this.tick = tick;
+        this.tickMicros = ExplorerProtocol.epochMicros();
+        this.count = count;
+    }
+}